@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * A bundle built on the node holding the workspace, so its bytes never travel
+ * through the controller. Only its location, size and checksum are sent back.
+ */
+public class AWSEBAgentBundle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final long length;
+    private final String md5;
+    private final boolean temporary;
+    private final AWSEBBundleStats stats;
+
+    public AWSEBAgentBundle(String path, long length, String md5, boolean temporary, AWSEBBundleStats stats) {
+        this.path = path;
+        this.length = length;
+        this.md5 = md5;
+        this.temporary = temporary;
+        this.stats = stats;
+    }
+
+    public FilePath getFilePath(VirtualChannel channel) {
+        return new FilePath(channel, path);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    /**
+     * What went into the bundle, null when it wasn't built here.
+     */
+    public AWSEBBundleStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Whether the bundle was created for this upload, to be deleted afterwards.
+     */
+    public boolean isTemporary() {
+        return temporary;
+    }
+
+    /**
+     * Zips the root object on the node, or uses it as it is when it already is a zip file.
+     */
+    public static class Prepare extends MasterToSlaveFileCallable<AWSEBAgentBundle> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AWSEBBundleBuilder builder;
+        private final TaskListener listener;
+
+        public Prepare(AWSEBBundleBuilder builder, TaskListener listener) {
+            this.builder = builder;
+            this.listener = listener;
+        }
+
+        @Override
+        public AWSEBAgentBundle invoke(File rootObject, VirtualChannel channel) throws IOException, InterruptedException {
+            if (!rootObject.isDirectory()) {
+                listener.getLogger().println("Root File Object is a file. We assume its a zip file, which is okay.");
+                return new AWSEBAgentBundle(rootObject.getAbsolutePath(), rootObject.length(), Util.getDigestOf(new FileInputStream(rootObject)), false, null);
+            }
+
+            File bundle = File.createTempFile("awseb-", ".zip");
+            listener.getLogger().println(String.format("Zipping contents of Root File Object (%s) on the agent", rootObject.getName()));
+            // Hash while writing, so the bundle doesn't have to be read again.
+            MessageDigest md5 = newMd5();
+            boolean created = false;
+            AWSEBBundleStats stats;
+            try {
+                OutputStream out = new DigestOutputStream(new FileOutputStream(bundle), md5);
+                try {
+                    stats = builder.build(rootObject, out);
+                    listener.getLogger().println(String.format("Zipped %d files", stats.getEntryCount()));
+                } finally {
+                    out.close();
+                }
+                created = true;
+            } finally {
+                if (!created) {
+                    bundle.delete();
+                }
+            }
+            return new AWSEBAgentBundle(bundle.getAbsolutePath(), bundle.length(), Util.toHexString(md5.digest()), true, stats);
+        }
+
+        private static MessageDigest newMd5() throws IOException {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("MD5 is not available", e);
+            }
+        }
+    }
+
+}
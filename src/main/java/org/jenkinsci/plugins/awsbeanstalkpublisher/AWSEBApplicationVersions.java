@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.ApplicationVersionDescription;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationVersionsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationVersionsResult;
+import com.amazonaws.services.elasticbeanstalk.model.S3Location;
+
+/**
+ * The application versions of an application and the bundle each one points at,
+ * listed with as few describeApplicationVersions calls as possible and cached for
+ * all builds for a while. Deploying several setups of the same application, or
+ * re-running a build, then doesn't look the versions up again.
+ *
+ * A label missing from the listing may still have been created since by another
+ * build, so only labels found are trusted; {@link #refresh} looks one up again.
+ */
+public class AWSEBApplicationVersions {
+
+    private static final long TTL_MILLISECONDS = TimeUnit.MINUTES.toMillis(5);
+    // The largest page describeApplicationVersions returns.
+    private static final int PAGE_SIZE = 1000;
+
+    private static final ConcurrentMap<String, AWSEBApplicationVersions> CACHE = new ConcurrentHashMap<String, AWSEBApplicationVersions>();
+
+    private final String applicationName;
+    private final long expires;
+    private Map<String, S3Location> versions;
+
+    private AWSEBApplicationVersions(String applicationName) {
+        this.applicationName = applicationName;
+        this.expires = System.currentTimeMillis() + TTL_MILLISECONDS;
+    }
+
+    /**
+     * @param account identifies the credentials and region the application is in, application names are only unique there
+     */
+    public static AWSEBApplicationVersions get(String account, String applicationName) {
+        String key = account + '|' + applicationName;
+        AWSEBApplicationVersions info = CACHE.get(key);
+        if (info == null || info.expires < System.currentTimeMillis()) {
+            info = new AWSEBApplicationVersions(applicationName);
+            CACHE.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * @return the bundle of the version with this label, or null if there is none
+     */
+    public synchronized S3Location find(AWSElasticBeanstalk awseb, String versionLabel) {
+        if (versions == null) {
+            versions = new HashMap<String, S3Location>();
+            DescribeApplicationVersionsRequest request = new DescribeApplicationVersionsRequest()
+                    .withApplicationName(applicationName).withMaxRecords(PAGE_SIZE);
+            do {
+                DescribeApplicationVersionsResult result = awseb.describeApplicationVersions(request);
+                for (ApplicationVersionDescription version : result.getApplicationVersions()) {
+                    versions.put(version.getVersionLabel(), version.getSourceBundle());
+                }
+                request.setNextToken(result.getNextToken());
+            } while (request.getNextToken() != null);
+        }
+        return versions.get(versionLabel);
+    }
+
+    /**
+     * Looks up a single version again, when it turned out to exist after all.
+     */
+    public synchronized S3Location refresh(AWSElasticBeanstalk awseb, String versionLabel) {
+        DescribeApplicationVersionsResult result = awseb.describeApplicationVersions(new DescribeApplicationVersionsRequest()
+                .withApplicationName(applicationName).withVersionLabels(versionLabel));
+        S3Location location = null;
+        for (ApplicationVersionDescription version : result.getApplicationVersions()) {
+            location = version.getSourceBundle();
+        }
+        put(versionLabel, location);
+        return location;
+    }
+
+    /**
+     * Records a version just created.
+     */
+    public synchronized void put(String versionLabel, S3Location location) {
+        if (versions != null) {
+            if (location == null) {
+                versions.remove(versionLabel);
+            } else {
+                versions.put(versionLabel, location);
+            }
+        }
+    }
+
+}
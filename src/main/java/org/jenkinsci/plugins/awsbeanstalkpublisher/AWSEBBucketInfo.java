@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetBucketAccelerateConfigurationRequest;
+import com.amazonaws.services.s3.model.Region;
+
+/**
+ * Facts about a bucket that hardly ever change: its region, whether Transfer
+ * Acceleration and versioning are enabled. They are cached for all the builds using
+ * the same credentials for a while, so deployments don't look them up again every time.
+ *
+ * A fact that can't be looked up (usually for lack of permission) is not cached:
+ * other credentials may be allowed to, or these ones once the policy is fixed.
+ */
+public class AWSEBBucketInfo {
+
+    private static final long TTL_MILLISECONDS = TimeUnit.HOURS.toMillis(1);
+
+    private static final ConcurrentMap<String, AWSEBBucketInfo> CACHE = new ConcurrentHashMap<String, AWSEBBucketInfo>();
+
+    private final String bucketName;
+    private final long expires;
+    private volatile String region;
+    private volatile String versioning;
+    private volatile Boolean accelerated;
+    private volatile boolean regionKnown;
+    private volatile boolean versioningKnown;
+    private volatile boolean accelerationKnown;
+
+    private AWSEBBucketInfo(String bucketName) {
+        this.bucketName = bucketName;
+        this.expires = System.currentTimeMillis() + TTL_MILLISECONDS;
+    }
+
+    /**
+     * @param account from {@link AWSEBUtils#getAccountKey}, what one account is allowed to see may differ
+     */
+    public static AWSEBBucketInfo get(String account, String bucketName) {
+        String key = account + '|' + bucketName;
+        AWSEBBucketInfo info = CACHE.get(key);
+        if (info == null || info.expires < System.currentTimeMillis()) {
+            // Two builds racing here just both look the facts up.
+            info = new AWSEBBucketInfo(bucketName);
+            CACHE.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * @return the region of the bucket, like eu-west-1, or null if it can't be looked up
+     */
+    public String getRegion(AmazonS3 s3) {
+        if (!regionKnown) {
+            try {
+                region = Region.fromValue(s3.getBucketLocation(bucketName)).toAWSRegion().getName();
+            } catch (AmazonServiceException e) {
+                return null;
+            } catch (IllegalArgumentException e) {
+                // A region this SDK doesn't know about yet, which won't change.
+                region = null;
+            }
+            regionKnown = true;
+        }
+        return region;
+    }
+
+    /**
+     * @return whether Transfer Acceleration is enabled, or null if it can't be looked up
+     */
+    public Boolean isAccelerated(AmazonS3 s3) {
+        if (!accelerationKnown) {
+            try {
+                accelerated = s3.getBucketAccelerateConfiguration(new GetBucketAccelerateConfigurationRequest(bucketName)).isAccelerateEnabled();
+            } catch (AmazonServiceException e) {
+                return null;
+            }
+            accelerationKnown = true;
+        }
+        return accelerated;
+    }
+
+    /**
+     * @return Off, Enabled or Suspended, or null if it can't be looked up
+     */
+    public String getVersioning(AmazonS3 s3) {
+        if (!versioningKnown) {
+            try {
+                versioning = s3.getBucketVersioningConfiguration(bucketName).getStatus();
+            } catch (AmazonServiceException e) {
+                return null;
+            }
+            versioningKnown = true;
+        }
+        return versioning;
+    }
+
+}
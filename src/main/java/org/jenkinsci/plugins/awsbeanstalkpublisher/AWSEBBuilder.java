@@ -17,6 +17,7 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Builder;
 import hudson.util.DescribableList;
+import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBElasticBeanstalkSetup;
@@ -62,7 +63,10 @@ public class AWSEBBuilder extends AWSEBBuilderBackwardsCompatibility {
 
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
-        return AWSEBSetup.perform(build, launcher, listener, getExtensions());
+        // The global settings, concurrency included, are configured with the publisher.
+        AWSEBPublisher.DescriptorImpl global = Jenkins.getInstance().getDescriptorByType(AWSEBPublisher.DescriptorImpl.class);
+        int concurrency = global == null ? 1 : global.getSetupConcurrency();
+        return AWSEBSetup.perform(build, launcher, listener, getExtensions(), concurrency);
     }
 
     public BuildStepMonitor getRequiredMonitorService() {
@@ -0,0 +1,376 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import hudson.util.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Zips the files selected by includes/excludes under a directory, deflating the
+ * entries on several threads. Reproducible bundles have the same bytes for the same inputs.
+ */
+public class AWSEBBundleBuilder implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Bigger files are compressed while being written rather than held in memory.
+    private static final long MAX_IN_MEMORY_ENTRY_SIZE = 8 * 1024 * 1024;
+    // Bounds how far the compressing threads run ahead of the writer.
+    private static final int MAX_ENTRIES_IN_FLIGHT_PER_THREAD = 4;
+    private static final long MAX_BYTES_IN_FLIGHT = 64 * 1024 * 1024;
+
+    // 1980-02-01 in local time: the DOS timestamp in the zip stays the same whatever the node's time zone.
+    private static final long REPRODUCIBLE_TIME = new GregorianCalendar(1980, 1, 1, 0, 0, 0).getTimeInMillis();
+    private static final int REPRODUCIBLE_FILE_MODE = 0100644;
+    private static final int REPRODUCIBLE_EXECUTABLE_MODE = 0100755;
+
+    private final String includes;
+    private final String excludes;
+    private final boolean reproducible;
+    private final int compressionThreads;
+    private final AWSEBCompressionPolicy compression;
+    private String fragmentCacheDir;
+    private long fragmentCacheSize;
+    private TaskListener listener;
+
+    /**
+     * @param compressionThreads number of threads compressing entries, 0 for one per core of the node
+     */
+    public AWSEBBundleBuilder(String includes, String excludes, boolean reproducible, int compressionThreads, AWSEBCompressionPolicy compression) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.reproducible = reproducible;
+        this.compressionThreads = compressionThreads;
+        this.compression = compression;
+    }
+
+    /**
+     * Keeps the compressed entries on the node, so unchanged files aren't compressed again.
+     */
+    public void setFragmentCache(String directory, long maxSize, TaskListener listener) {
+        this.fragmentCacheDir = directory;
+        this.fragmentCacheSize = maxSize;
+        this.listener = listener;
+    }
+
+    public AWSEBBundleStats build(FilePath rootDir, OutputStream out) throws IOException, InterruptedException {
+        return rootDir.act(new Build(this, rootDir.isRemote() ? new RemoteOutputStream(out) : out));
+    }
+
+    public AWSEBBundleStats build(File rootDir, OutputStream out) throws IOException, InterruptedException {
+        AWSEBBundleStats stats = new AWSEBBundleStats();
+        long start = System.currentTimeMillis();
+        List<BundleEntry> entries = scan(rootDir);
+        stats.setScanMillis(System.currentTimeMillis() - start);
+        start = System.currentTimeMillis();
+        int threads = compressionThreads > 0 ? compressionThreads : Runtime.getRuntime().availableProcessors();
+
+        final AWSEBFragmentCache cache = fragmentCacheDir == null ? null
+                : new AWSEBFragmentCache(new File(fragmentCacheDir), fragmentCacheSize, compression.toString());
+
+        AWSEBZipWriter zip = new AWSEBZipWriter(out);
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            // Entries are compressed ahead of the writer, but written strictly in order.
+            List<Future<CompressedEntry>> compressed = new ArrayList<Future<CompressedEntry>>(Collections.<Future<CompressedEntry>>nCopies(entries.size(), null));
+            int submitted = 0;
+            long bytesInFlight = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                while (pool != null && submitted < entries.size()
+                        && (submitted <= i || (submitted - i < threads * MAX_ENTRIES_IN_FLIGHT_PER_THREAD && bytesInFlight < MAX_BYTES_IN_FLIGHT))) {
+                    final BundleEntry next = entries.get(submitted);
+                    if (!isLarge(next)) {
+                        compressed.set(submitted, pool.submit(new Callable<CompressedEntry>() {
+                            @Override
+                            public CompressedEntry call() throws IOException {
+                                return compress(next, cache);
+                            }
+                        }));
+                        bytesInFlight += next.length;
+                    }
+                    submitted++;
+                }
+
+                BundleEntry entry = entries.get(i);
+                AWSEBZipWriter.Entry written;
+                if (isLarge(entry)) {
+                    written = writeLarge(zip, entry);
+                } else {
+                    CompressedEntry result = pool != null ? get(compressed.get(i)) : compress(entry, cache);
+                    compressed.set(i, null);
+                    bytesInFlight -= entry.length;
+                    zip.write(result.entry, new ByteArrayInputStream(result.data));
+                    written = result.entry;
+                }
+                stats.add(entry.path, written.getSize(), written.getCompressedSize());
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        zip.close();
+        if (cache != null) {
+            cache.evict();
+            listener.getLogger().println(String.format("Reused %d compressed files from the cache, compressed %d",
+                    cache.getHits(), cache.getMisses()));
+        }
+        stats.setZipMillis(System.currentTimeMillis() - start);
+        return stats;
+    }
+
+    public String fingerprint(FilePath rootDir, boolean hashContents) throws IOException, InterruptedException {
+        return rootDir.act(new Fingerprint(this, hashContents));
+    }
+
+    /**
+     * A hash of the path, size, mode and modification time (or contents) of the files,
+     * and of the settings shaping the bundle.
+     */
+    public String fingerprint(File rootDir, boolean hashContents) throws IOException {
+        List<BundleEntry> entries = scan(rootDir);
+        Collections.sort(entries, BY_PATH);
+
+        MessageDigest root = newDigest();
+        root.update(String.format("%s|%s|%s|%s%n", includes, excludes, reproducible, compression).getBytes("UTF-8"));
+        for (BundleEntry entry : entries) {
+            MessageDigest leaf = newDigest();
+            leaf.update(entry.path.getBytes("UTF-8"));
+            leaf.update((byte) 0);
+            leaf.update(String.valueOf(entry.length).getBytes("UTF-8"));
+            leaf.update((byte) 0);
+            // The mode as written to the bundle, a chmod alone changes it.
+            leaf.update(String.valueOf(mode(entry.file)).getBytes("UTF-8"));
+            leaf.update((byte) 0);
+            if (hashContents) {
+                leaf.update(digestOf(entry.file));
+            } else {
+                leaf.update(String.valueOf(entry.file.lastModified()).getBytes("UTF-8"));
+            }
+            root.update(leaf.digest());
+        }
+        return Util.toHexString(root.digest());
+    }
+
+    private static byte[] digestOf(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+    }
+
+    private boolean isLarge(BundleEntry entry) {
+        return entry.length > MAX_IN_MEMORY_ENTRY_SIZE;
+    }
+
+    /**
+     * Stored instead when deflating doesn't make it smaller.
+     */
+    private CompressedEntry compress(BundleEntry entry, AWSEBFragmentCache cache) throws IOException {
+        byte[] data = FileUtils.readFileToByteArray(entry.file);
+        if (cache == null || compression.isStored(entry.path)) {
+            return compress(entry, data);
+        }
+        String key = cache.key(entry.path, data);
+        AWSEBFragmentCache.Fragment fragment = cache.get(key);
+        if (fragment != null) {
+            return new CompressedEntry(newEntry(entry, fragment.getMethod(), fragment.getCrc(), fragment.getData().length, fragment.getSize()),
+                    fragment.getData());
+        }
+        CompressedEntry compressed = compress(entry, data);
+        if (compressed.entry.getMethod() == AWSEBZipWriter.DEFLATED) {
+            cache.put(key, new AWSEBFragmentCache.Fragment(compressed.entry.getMethod(), compressed.entry.getCrc(), data.length, compressed.data));
+        }
+        return compressed;
+    }
+
+    private CompressedEntry compress(BundleEntry entry, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        // Sampled from the data at hand, the file isn't read again.
+        if (!compression.isStored(entry.path) && !compression.isIncompressibleContent(data)) {
+            byte[] deflated = AWSEBZipWriter.deflate(data, compression.getLevel(), crc);
+            if (deflated.length < data.length) {
+                return new CompressedEntry(newEntry(entry, AWSEBZipWriter.DEFLATED, crc.getValue(), deflated.length, data.length), deflated);
+            }
+            crc.reset();
+        }
+        crc.update(data);
+        return new CompressedEntry(newEntry(entry, AWSEBZipWriter.STORED, crc.getValue(), data.length, data.length), data);
+    }
+
+    private AWSEBZipWriter.Entry writeLarge(AWSEBZipWriter zip, BundleEntry entry) throws IOException {
+        if (compression.isStored(entry.path) || compression.isIncompressible(entry.file)) {
+            // Stored entries need their CRC up front.
+            long crc = FileUtils.checksumCRC32(entry.file);
+            AWSEBZipWriter.Entry stored = newEntry(entry, AWSEBZipWriter.STORED, crc, entry.length, entry.length);
+            InputStream in = new FileInputStream(entry.file);
+            try {
+                zip.write(stored, in);
+            } finally {
+                in.close();
+            }
+            return stored;
+        }
+        AWSEBZipWriter.Entry deflated = newEntry(entry, AWSEBZipWriter.DEFLATED, 0, 0, 0);
+        InputStream in = new FileInputStream(entry.file);
+        try {
+            zip.writeDeflated(deflated, in, compression.getLevel());
+        } finally {
+            in.close();
+        }
+        return deflated;
+    }
+
+    private AWSEBZipWriter.Entry newEntry(BundleEntry entry, int method, long crc, long compressedSize, long size) throws IOException {
+        return new AWSEBZipWriter.Entry(entry.path, time(entry.file), mode(entry.file), method, crc, compressedSize, size);
+    }
+
+    private static CompressedEntry get(Future<CompressedEntry> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to compress bundle entry", e.getCause());
+        }
+    }
+
+    private long time(File file) {
+        return reproducible ? REPRODUCIBLE_TIME : file.lastModified();
+    }
+
+    private List<BundleEntry> scan(File rootDir) throws IOException {
+        final List<BundleEntry> entries = new ArrayList<BundleEntry>();
+        new DirScanner.Glob(includes, excludes).scan(rootDir, new FileVisitor() {
+            @Override
+            public void visit(File file, String relativePath) throws IOException {
+                entries.add(new BundleEntry(file, relativePath.replace('\\', '/')));
+            }
+        });
+        if (reproducible) {
+            Collections.sort(entries, BY_PATH);
+        }
+        return entries;
+    }
+
+    private int mode(File file) throws IOException {
+        int mode = IOUtils.mode(file);
+        if (!reproducible) {
+            return mode;
+        }
+        // Only the executable bit survives, everything else depends on the umask of the node.
+        return mode != -1 && (mode & 0100) != 0 ? REPRODUCIBLE_EXECUTABLE_MODE : REPRODUCIBLE_FILE_MODE;
+    }
+
+    private static final Comparator<BundleEntry> BY_PATH = new Comparator<BundleEntry>() {
+        @Override
+        public int compare(BundleEntry first, BundleEntry second) {
+            return first.path.compareTo(second.path);
+        }
+    };
+
+    private static class BundleEntry {
+        private final File file;
+        private final String path;
+        private final long length;
+
+        BundleEntry(File file, String path) {
+            this.file = file;
+            this.path = path;
+            this.length = file.length();
+        }
+    }
+
+    private static class CompressedEntry {
+        private final AWSEBZipWriter.Entry entry;
+        private final byte[] data;
+
+        CompressedEntry(AWSEBZipWriter.Entry entry, byte[] data) {
+            this.entry = entry;
+            this.data = data;
+        }
+    }
+
+    private static class Fingerprint extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AWSEBBundleBuilder builder;
+        private final boolean hashContents;
+
+        Fingerprint(AWSEBBundleBuilder builder, boolean hashContents) {
+            this.builder = builder;
+            this.hashContents = hashContents;
+        }
+
+        @Override
+        public String invoke(File rootDir, VirtualChannel channel) throws IOException {
+            return builder.fingerprint(rootDir, hashContents);
+        }
+    }
+
+    private static class Build extends MasterToSlaveFileCallable<AWSEBBundleStats> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AWSEBBundleBuilder builder;
+        private final OutputStream out;
+
+        Build(AWSEBBundleBuilder builder, OutputStream out) {
+            this.builder = builder;
+            this.out = out;
+        }
+
+        @Override
+        public AWSEBBundleStats invoke(File rootDir, VirtualChannel channel) throws IOException, InterruptedException {
+            return builder.build(rootDir, out);
+        }
+    }
+
+}
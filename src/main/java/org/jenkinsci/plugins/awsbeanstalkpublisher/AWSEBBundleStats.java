@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * What went into a bundle and how long it took to make it, collected on the node
+ * building it: entry count, sizes, the largest files and top level directories,
+ * and the compression achieved per file type.
+ */
+@ExportedBean
+public class AWSEBBundleStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int TOP_COUNT = 10;
+    private static final String NO_EXTENSION = "(none)";
+    private static final String ROOT_DIRECTORY = "/";
+
+    private int entryCount;
+    private long size;
+    private long compressedSize;
+    private long scanMillis;
+    private long zipMillis;
+    private final List<Item> largestFiles = new ArrayList<Item>();
+    private final Map<String, Item> directories = new HashMap<String, Item>();
+    private final Map<String, Item> types = new HashMap<String, Item>();
+
+    /**
+     * Sizes of a file, or the totals of a group of files.
+     */
+    @ExportedBean
+    public static class Item implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private int count;
+        private long size;
+        private long compressedSize;
+
+        Item(String name) {
+            this.name = name;
+        }
+
+        void add(long size, long compressedSize) {
+            this.count++;
+            this.size += size;
+            this.compressedSize += compressedSize;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public int getCount() {
+            return count;
+        }
+
+        @Exported
+        public long getSize() {
+            return size;
+        }
+
+        @Exported
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Compressed size over original size, 1 for incompressible data.
+         */
+        @Exported
+        public double getRatio() {
+            return size == 0 ? 1 : (double) compressedSize / size;
+        }
+    }
+
+    private static final Comparator<Item> BY_SIZE_DESCENDING = new Comparator<Item>() {
+        @Override
+        public int compare(Item first, Item second) {
+            return Long.valueOf(second.size).compareTo(first.size);
+        }
+    };
+
+    void add(String path, long size, long compressedSize) {
+        entryCount++;
+        this.size += size;
+        this.compressedSize += compressedSize;
+
+        if (largestFiles.size() < TOP_COUNT || size > largestFiles.get(largestFiles.size() - 1).size) {
+            Item file = new Item(path);
+            file.add(size, compressedSize);
+            largestFiles.add(file);
+            Collections.sort(largestFiles, BY_SIZE_DESCENDING);
+            if (largestFiles.size() > TOP_COUNT) {
+                largestFiles.remove(TOP_COUNT);
+            }
+        }
+
+        int slash = path.indexOf('/');
+        group(directories, slash == -1 ? ROOT_DIRECTORY : path.substring(0, slash)).add(size, compressedSize);
+
+        int dot = path.lastIndexOf('.');
+        String extension = dot > path.lastIndexOf('/') ? path.substring(dot + 1).toLowerCase(Locale.ENGLISH) : NO_EXTENSION;
+        group(types, extension).add(size, compressedSize);
+    }
+
+    private static Item group(Map<String, Item> groups, String name) {
+        Item group = groups.get(name);
+        if (group == null) {
+            group = new Item(name);
+            groups.put(name, group);
+        }
+        return group;
+    }
+
+    void setScanMillis(long scanMillis) {
+        this.scanMillis = scanMillis;
+    }
+
+    void setZipMillis(long zipMillis) {
+        this.zipMillis = zipMillis;
+    }
+
+    @Exported
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    @Exported
+    public long getSize() {
+        return size;
+    }
+
+    @Exported
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    @Exported
+    public double getRatio() {
+        return size == 0 ? 1 : (double) compressedSize / size;
+    }
+
+    @Exported
+    public long getScanMillis() {
+        return scanMillis;
+    }
+
+    @Exported
+    public long getZipMillis() {
+        return zipMillis;
+    }
+
+    @Exported
+    public List<Item> getLargestFiles() {
+        return Collections.unmodifiableList(largestFiles);
+    }
+
+    @Exported
+    public List<Item> getLargestDirectories() {
+        return sortBySize(directories.values(), TOP_COUNT);
+    }
+
+    /**
+     * Totals per file extension, largest first.
+     */
+    @Exported
+    public List<Item> getTypes() {
+        return sortBySize(types.values(), Integer.MAX_VALUE);
+    }
+
+    private static List<Item> sortBySize(Collection<Item> items, int limit) {
+        List<Item> sorted = new ArrayList<Item>(items);
+        Collections.sort(sorted, BY_SIZE_DESCENDING);
+        return sorted.size() > limit ? new ArrayList<Item>(sorted.subList(0, limit)) : sorted;
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Stores entries that are already compressed (archives, images, fonts...) rather
+ * than deflating them again.
+ */
+public class AWSEBCompressionPolicy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_LEVEL = 6;
+    public static final String DEFAULT_STORE_EXTENSIONS = "jar, war, ear, zip, gz, tgz, bz2, xz, 7z, png, jpg, jpeg, gif, webp, woff, woff2, mp3, mp4";
+
+    // Entries up to this size are deflated in full rather than sampled.
+    static final int SAMPLE_SIZE = 64 * 1024;
+    // Compressed / original size of a sample above which the entry is stored.
+    private static final double INCOMPRESSIBLE_RATIO = 0.95;
+
+    private final int level;
+    private final Set<String> storeExtensions;
+    private final boolean sampleEntropy;
+
+    /**
+     * @param storeExtensions comma or space separated extensions of the entries to store
+     */
+    public AWSEBCompressionPolicy(int level, String storeExtensions, boolean sampleEntropy) {
+        this.level = level;
+        this.storeExtensions = new HashSet<String>();
+        if (storeExtensions != null) {
+            for (String extension : storeExtensions.split("[,\\s]+")) {
+                extension = extension.trim();
+                while (extension.startsWith(".")) {
+                    extension = extension.substring(1);
+                }
+                if (extension.length() > 0) {
+                    this.storeExtensions.add(extension.toLowerCase(Locale.ENGLISH));
+                }
+            }
+        }
+        this.sampleEntropy = sampleEntropy;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isStored(String path) {
+        if (level == 0) {
+            return true;
+        }
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash && storeExtensions.contains(path.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Only big files are sampled: small ones are deflated in full and stored if that didn't help.
+     */
+    public boolean isIncompressible(File file) throws IOException {
+        if (!sampleEntropy || file.length() <= SAMPLE_SIZE) {
+            return false;
+        }
+        byte[] sample = new byte[SAMPLE_SIZE];
+        InputStream in = new FileInputStream(file);
+        try {
+            IOUtils.readFully(in, sample);
+        } finally {
+            in.close();
+        }
+        return isIncompressible(sample);
+    }
+
+    public boolean isIncompressibleContent(byte[] data) {
+        if (!sampleEntropy || data.length <= SAMPLE_SIZE) {
+            return false;
+        }
+        return isIncompressible(Arrays.copyOf(data, SAMPLE_SIZE));
+    }
+
+    boolean isIncompressible(byte[] sample) {
+        byte[] deflated = AWSEBZipWriter.deflate(sample, Deflater.BEST_SPEED, new CRC32());
+        return deflated.length > sample.length * INCOMPRESSIBLE_RATIO;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("level=%d, store=%s, sample=%s", level, new TreeSet<String>(storeExtensions), sampleEntropy);
+    }
+
+}
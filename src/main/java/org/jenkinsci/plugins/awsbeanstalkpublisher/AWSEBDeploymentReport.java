@@ -0,0 +1,229 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.Api;
+import hudson.model.Run;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jenkins.model.RunAction2;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Per build report of the bundles deployed: what went into them, how long it took
+ * to build, hash and upload them, and the throughput achieved. Also available as
+ * JSON or XML through the remote API of the action.
+ */
+@ExportedBean
+public class AWSEBDeploymentReport implements RunAction2 {
+
+    private final List<Upload> uploads = new CopyOnWriteArrayList<Upload>();
+    private long throttledRequests;
+    private long rateLimitWaitMillis;
+
+    private transient Run<?, ?> run;
+
+    /**
+     * The report of the build, added to it on first use.
+     */
+    public static synchronized AWSEBDeploymentReport get(Run<?, ?> run) {
+        AWSEBDeploymentReport report = run.getAction(AWSEBDeploymentReport.class);
+        if (report == null) {
+            report = new AWSEBDeploymentReport();
+            run.addAction(report);
+        }
+        return report;
+    }
+
+    /**
+     * One bundle uploaded (or found unchanged) for an S3 setup.
+     */
+    @ExportedBean
+    public static class Upload {
+        private String location;
+        private String mode;
+        private AWSEBBundleStats bundle;
+        private String md5;
+        private long bundleSize;
+        private boolean skipped;
+        private long hashMillis;
+        private long uploadMillis;
+        private long uploadedBytes;
+        private long throttledMillis;
+
+        /**
+         * @param mode how the bundle was made and uploaded
+         */
+        public Upload(String mode) {
+            this.mode = mode;
+        }
+
+        public void setLocation(String location) {
+            this.location = location;
+        }
+
+        public void setMode(String mode) {
+            this.mode = mode;
+        }
+
+        public void setBundle(AWSEBBundleStats bundle) {
+            this.bundle = bundle;
+        }
+
+        public void setMd5(String md5) {
+            this.md5 = md5;
+        }
+
+        public void setBundleSize(long bundleSize) {
+            this.bundleSize = bundleSize;
+        }
+
+        public void setSkipped(boolean skipped) {
+            this.skipped = skipped;
+        }
+
+        public void setHashMillis(long hashMillis) {
+            this.hashMillis = hashMillis;
+        }
+
+        public void setUpload(long uploadedBytes, long uploadMillis) {
+            this.uploadedBytes = uploadedBytes;
+            this.uploadMillis = uploadMillis;
+        }
+
+        public void setThrottledMillis(long throttledMillis) {
+            this.throttledMillis = throttledMillis;
+        }
+
+        @Exported
+        public String getLocation() {
+            return location;
+        }
+
+        @Exported
+        public String getMode() {
+            return mode;
+        }
+
+        /**
+         * What went into the bundle, null when the root object is a prebuilt zip.
+         */
+        @Exported
+        public AWSEBBundleStats getBundle() {
+            return bundle;
+        }
+
+        @Exported
+        public String getMd5() {
+            return md5;
+        }
+
+        @Exported
+        public long getBundleSize() {
+            return bundleSize;
+        }
+
+        /**
+         * Whether the upload was skipped, the bundle being in S3 already.
+         */
+        @Exported
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        @Exported
+        public long getHashMillis() {
+            return hashMillis;
+        }
+
+        @Exported
+        public long getUploadMillis() {
+            return uploadMillis;
+        }
+
+        @Exported
+        public long getUploadedBytes() {
+            return uploadedBytes;
+        }
+
+        @Exported
+        public long getThrottledMillis() {
+            return throttledMillis;
+        }
+
+        @Exported
+        public double getThroughputMBps() {
+            return uploadMillis == 0 ? 0 : uploadedBytes * 1000.0 / AWSEBMultipartUploader.MB / uploadMillis;
+        }
+    }
+
+    public void add(Upload upload) {
+        uploads.add(upload);
+    }
+
+    /**
+     * Accounts the AWS calls of an application setup.
+     */
+    public synchronized void addApiUsage(long throttled, long waitMillis) {
+        throttledRequests += throttled;
+        rateLimitWaitMillis += waitMillis;
+    }
+
+    /**
+     * How many AWS calls were throttled, and retried.
+     */
+    @Exported
+    public synchronized long getThrottledRequests() {
+        return throttledRequests;
+    }
+
+    /**
+     * How long AWS calls waited for the controller-wide rate limit.
+     */
+    @Exported
+    public synchronized long getRateLimitWaitMillis() {
+        return rateLimitWaitMillis;
+    }
+
+    @Exported
+    public List<Upload> getUploads() {
+        return Collections.unmodifiableList(uploads);
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Elastic Beanstalk Deployment";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb-report";
+    }
+
+}
@@ -0,0 +1,417 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsResult;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+
+/**
+ * Status and events of all the environments being updated in an account and region,
+ * by all builds. Instead of each environment describing itself, the poller describes
+ * all of them with a single describeEnvironments call and gets the events of each
+ * application with a single describeEvents call, then hands each environment its own.
+ *
+ * Results are shared for {@link #MAX_AGE_MILLISECONDS}, so environments checking on
+ * themselves at about the same time only cause one round of calls. Calls are made with
+ * the client of the build asking, without holding the lock of the poller: callers
+ * needing the same results wait for the call already made. A poller is dropped once
+ * nothing is tracked.
+ */
+public class AWSEBEnvironmentPoller {
+
+    static final long MAX_AGE_MILLISECONDS = AWSEBPollingInterval.MIN_INTERVAL_MILLISECONDS;
+    // Events sharing the date of the latest one are looked up with it.
+    private static final int LATEST_EVENTS = 10;
+    // Events are fetched again this long before the latest one fetched, in case some show up late.
+    static final long OVERLAP_MILLISECONDS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ConcurrentMap<String, AWSEBEnvironmentPoller> POLLERS = new ConcurrentHashMap<String, AWSEBEnvironmentPoller>();
+
+    private static final Comparator<EventDescription> LATEST_FIRST = new Comparator<EventDescription>() {
+        @Override
+        public int compare(EventDescription a, EventDescription b) {
+            return b.getEventDate().compareTo(a.getEventDate());
+        }
+    };
+
+    /**
+     * An environment tracked by one tracker, and the events already handed to it.
+     * Several trackers may follow the same environment, each gets all of its events.
+     */
+    public static final class Registration {
+        private final AWSElasticBeanstalk awseb;
+        private final EnvironmentDescription envd;
+        // The date of the last event handed out, and all the events of that date handed out.
+        private Date cursor;
+        private final Set<EventDescription> seen = new HashSet<EventDescription>();
+
+        private Registration(AWSElasticBeanstalk awseb, EnvironmentDescription envd) {
+            this.awseb = awseb;
+            this.envd = envd;
+        }
+    }
+
+    /**
+     * The events of an application fetched so far, latest first.
+     */
+    private static final class ApplicationEvents {
+        private List<EventDescription> events = new ArrayList<EventDescription>();
+        private Date fetchedUpTo;
+        private long fetched;
+        private FutureTask<List<EventDescription>> fetching;
+    }
+
+    private final String account;
+
+    private final Set<Registration> tracked = new HashSet<Registration>();
+
+    private Map<String, EnvironmentDescription> environments = new HashMap<String, EnvironmentDescription>();
+    private long environmentsFetched;
+    private FutureTask<Map<String, EnvironmentDescription>> describing;
+    private Set<String> describingIds;
+    private final Map<String, ApplicationEvents> events = new HashMap<String, ApplicationEvents>();
+    private final Map<String, List<EventDescription>> latestEvents = new HashMap<String, List<EventDescription>>();
+    private final Map<String, Long> latestEventsFetched = new HashMap<String, Long>();
+
+    AWSEBEnvironmentPoller(String account) {
+        this.account = account;
+    }
+
+    /**
+     * @param account from {@link AWSEBUtils#getAccountKey}
+     */
+    public static AWSEBEnvironmentPoller get(String account) {
+        AWSEBEnvironmentPoller poller = POLLERS.get(account);
+        if (poller == null) {
+            POLLERS.putIfAbsent(account, new AWSEBEnvironmentPoller(account));
+            poller = POLLERS.get(account);
+        }
+        return poller;
+    }
+
+    /**
+     * Starts tracking an environment. Only its events from now on are handed out.
+     *
+     * @param awseb the client of the build, used for all the calls made for this registration
+     */
+    public Registration register(AWSElasticBeanstalk awseb, EnvironmentDescription envd) {
+        Registration registration = new Registration(awseb, envd);
+        String applicationName = envd.getApplicationName();
+        List<EventDescription> latest;
+        synchronized (this) {
+            Long fetched = latestEventsFetched.get(applicationName);
+            latest = fetched != null && System.currentTimeMillis() - fetched <= MAX_AGE_MILLISECONDS ? latestEvents.get(applicationName) : null;
+        }
+        if (latest == null) {
+            long now = System.currentTimeMillis();
+            latest = fetchLatestEvents(awseb, applicationName);
+            synchronized (this) {
+                latestEvents.put(applicationName, latest);
+                latestEventsFetched.put(applicationName, now);
+            }
+        }
+        synchronized (this) {
+            skipTo(registration, latest);
+            tracked.add(registration);
+        }
+        return registration;
+    }
+
+    /**
+     * Only hands out the events from now on, as if registering again: the events until
+     * now are not about what is done next to the environment.
+     */
+    public void skipEvents(Registration registration) {
+        List<EventDescription> latest = fetchLatestEvents(registration.awseb, registration.envd.getApplicationName());
+        synchronized (this) {
+            skipTo(registration, latest);
+        }
+    }
+
+    private static void skipTo(Registration registration, List<EventDescription> latest) {
+        // The clock of this machine may not match AWS, so the last events of the application are now.
+        registration.cursor = latest.isEmpty() ? new Date() : latest.get(0).getEventDate();
+        registration.seen.clear();
+        registration.seen.addAll(latest);
+    }
+
+    public synchronized void unregister(Registration registration) {
+        if (!tracked.remove(registration)) {
+            return;
+        }
+        String applicationName = registration.envd.getApplicationName();
+        for (Registration other : tracked) {
+            if (other.envd.getApplicationName().equals(applicationName)) {
+                return;
+            }
+        }
+        events.remove(applicationName);
+        if (tracked.isEmpty()) {
+            // A poller that was replaced in the meantime is not removed in its place.
+            POLLERS.remove(account, this);
+        }
+    }
+
+    /**
+     * Forgets what is known about the environment after changing it, so it is described again.
+     */
+    public synchronized void invalidate(String environmentId) {
+        environments.remove(environmentId);
+    }
+
+    /**
+     * Forgets when the events were fetched, so they are fetched again on the next call.
+     */
+    synchronized void invalidateEvents() {
+        for (ApplicationEvents application : events.values()) {
+            application.fetched = 0;
+        }
+    }
+
+    /**
+     * @param awseb the client of the build asking
+     * @return the current description of the environment, or null if it no longer exists
+     */
+    public EnvironmentDescription describe(final AWSElasticBeanstalk awseb, String environmentId) {
+        FutureTask<Map<String, EnvironmentDescription>> task;
+        boolean owner = false;
+        synchronized (this) {
+            if (System.currentTimeMillis() - environmentsFetched <= MAX_AGE_MILLISECONDS && environments.containsKey(environmentId)) {
+                return environments.get(environmentId);
+            }
+            task = describing;
+            if (task == null || !describingIds.contains(environmentId)) {
+                final Set<String> ids = new HashSet<String>();
+                for (Registration registration : tracked) {
+                    ids.add(registration.envd.getEnvironmentId());
+                }
+                ids.add(environmentId);
+                task = new FutureTask<Map<String, EnvironmentDescription>>(new Callable<Map<String, EnvironmentDescription>>() {
+                    @Override
+                    public Map<String, EnvironmentDescription> call() {
+                        Map<String, EnvironmentDescription> described = new HashMap<String, EnvironmentDescription>();
+                        DescribeEnvironmentsRequest request = new DescribeEnvironmentsRequest().withEnvironmentIds(ids);
+                        for (EnvironmentDescription env : awseb.describeEnvironments(request).getEnvironments()) {
+                            described.put(env.getEnvironmentId(), env);
+                        }
+                        return described;
+                    }
+                });
+                describing = task;
+                describingIds = ids;
+                owner = true;
+            }
+        }
+        if (!owner) {
+            return await(task).get(environmentId);
+        }
+        long now = System.currentTimeMillis();
+        task.run();
+        try {
+            Map<String, EnvironmentDescription> described = await(task);
+            synchronized (this) {
+                environments = described;
+                environmentsFetched = now;
+            }
+            return described.get(environmentId);
+        } finally {
+            synchronized (this) {
+                if (describing == task) {
+                    describing = null;
+                    describingIds = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the events of the environment since the last ones handed out for this
+     * registration, earliest first
+     */
+    public List<EventDescription> getEvents(Registration registration) {
+        final String applicationName = registration.envd.getApplicationName();
+        ApplicationEvents application;
+        FutureTask<List<EventDescription>> task = null;
+        boolean owner = false;
+        synchronized (this) {
+            if (!tracked.contains(registration)) {
+                return Collections.emptyList();
+            }
+            application = events.get(applicationName);
+            if (application == null) {
+                application = new ApplicationEvents();
+                events.put(applicationName, application);
+            }
+            if (System.currentTimeMillis() - application.fetched > MAX_AGE_MILLISECONDS) {
+                task = application.fetching;
+                if (task == null) {
+                    final AWSElasticBeanstalk awseb = registration.awseb;
+                    final Date since = getFetchStart(application, applicationName);
+                    task = new FutureTask<List<EventDescription>>(new Callable<List<EventDescription>>() {
+                        @Override
+                        public List<EventDescription> call() {
+                            return fetchEvents(awseb, applicationName, since);
+                        }
+                    });
+                    application.fetching = task;
+                    owner = true;
+                }
+            }
+        }
+        if (owner) {
+            long now = System.currentTimeMillis();
+            task.run();
+            try {
+                List<EventDescription> fetched = await(task);
+                synchronized (this) {
+                    merge(application, applicationName, fetched, now);
+                }
+            } finally {
+                synchronized (this) {
+                    application.fetching = null;
+                }
+            }
+        } else if (task != null) {
+            await(task);
+        }
+        synchronized (this) {
+            return handOut(registration, application.events);
+        }
+    }
+
+    private List<EventDescription> handOut(Registration registration, List<EventDescription> latestFirst) {
+        EnvironmentDescription envd = registration.envd;
+        List<EventDescription> found = new ArrayList<EventDescription>();
+        for (EventDescription event : latestFirst) {
+            // Events of the same date as the cursor may have been described after it was set.
+            if (envd.getEnvironmentName().equals(event.getEnvironmentName()) && !event.getEventDate().before(registration.cursor)
+                    && !registration.seen.contains(event)) {
+                found.add(event);
+            }
+        }
+        // Described latest first, handed out in the order they happened like the build log.
+        Collections.reverse(found);
+        for (EventDescription event : found) {
+            if (event.getEventDate().after(registration.cursor)) {
+                registration.cursor = event.getEventDate();
+                registration.seen.clear();
+            }
+            registration.seen.add(event);
+        }
+        return found;
+    }
+
+    /**
+     * The events before the earliest cursor of the application are not needed, and those
+     * fetched already only since a little before the latest one.
+     */
+    private Date getFetchStart(ApplicationEvents application, String applicationName) {
+        Date since = getEarliestCursor(applicationName);
+        if (application.fetchedUpTo != null) {
+            Date overlap = new Date(application.fetchedUpTo.getTime() - OVERLAP_MILLISECONDS);
+            if (since == null || overlap.after(since)) {
+                since = overlap;
+            }
+        }
+        return since;
+    }
+
+    private Date getEarliestCursor(String applicationName) {
+        Date since = null;
+        for (Registration registration : tracked) {
+            if (applicationName.equals(registration.envd.getApplicationName()) && (since == null || registration.cursor.before(since))) {
+                since = registration.cursor;
+            }
+        }
+        return since;
+    }
+
+    private void merge(ApplicationEvents application, String applicationName, List<EventDescription> fetched, long now) {
+        Set<EventDescription> merged = new LinkedHashSet<EventDescription>(fetched);
+        Date earliest = getEarliestCursor(applicationName);
+        for (EventDescription event : application.events) {
+            if (earliest == null || !event.getEventDate().before(earliest)) {
+                merged.add(event);
+            }
+        }
+        List<EventDescription> sorted = new ArrayList<EventDescription>(merged);
+        Collections.sort(sorted, LATEST_FIRST);
+        application.events = sorted;
+        if (!sorted.isEmpty() && (application.fetchedUpTo == null || sorted.get(0).getEventDate().after(application.fetchedUpTo))) {
+            application.fetchedUpTo = sorted.get(0).getEventDate();
+        }
+        application.fetched = now;
+    }
+
+    /**
+     * The events of the application since the given date, latest first.
+     */
+    private static List<EventDescription> fetchEvents(AWSElasticBeanstalk awseb, String applicationName, Date since) {
+        // Events at the start time are included.
+        DescribeEventsRequest request = new DescribeEventsRequest().withApplicationName(applicationName).withStartTime(since);
+        List<EventDescription> found = new ArrayList<EventDescription>();
+        do {
+            DescribeEventsResult result = awseb.describeEvents(request);
+            found.addAll(result.getEvents());
+            request.setNextToken(result.getNextToken());
+        } while (request.getNextToken() != null);
+        return found;
+    }
+
+    /**
+     * @return the latest events of the application, all of the same date, or none if unknown
+     */
+    private static List<EventDescription> fetchLatestEvents(AWSElasticBeanstalk awseb, String applicationName) {
+        List<EventDescription> latest = new ArrayList<EventDescription>();
+        try {
+            List<EventDescription> last = awseb.describeEvents(new DescribeEventsRequest()
+                    .withApplicationName(applicationName).withMaxRecords(LATEST_EVENTS)).getEvents();
+            for (EventDescription event : last) {
+                if (event.getEventDate().equals(last.get(0).getEventDate())) {
+                    latest.add(event);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Unable to get the last events, using the current time.
+        }
+        return latest;
+    }
+
+    /**
+     * Waits for a call made by another caller, and fails the same way it did.
+     */
+    private static <T> T await(FutureTask<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,335 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.Util;
+import hudson.init.Terminator;
+import hudson.model.BuildListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+import com.amazonaws.services.elasticbeanstalk.model.UpdateEnvironmentRequest;
+
+/**
+ * Updates an environment and follows the update until it completes.
+ *
+ * Trackers don't hold a thread while they wait: each check is a short step run on a
+ * scheduler shared by all builds, which schedules the next step when it is done, so
+ * a handful of threads track any number of environments. The scheduler is shut down
+ * when Jenkins stops.
+ */
+public class AWSEBEnvironmentTracker implements Runnable {
+    private static final int SCHEDULER_THREADS = 4;
+    private static final int AWAIT_CHECK_SECONDS = 10;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(SCHEDULER_THREADS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "AWSEB environment tracker"));
+    
+    private final EnvironmentDescription envd;
+    private final AWSElasticBeanstalk awseb;
+    private final AWSEBEnvironmentPoller poller;
+    private final AWSEBEnvironmentPoller.Registration registration;
+    private final String environmentId;
+    private final BuildListener listener;
+    private final String versionLabel;
+
+    private boolean isUpdated = false;
+    private boolean isComplete = false;
+    private boolean success = false;
+    private final AWSEBRetryPolicy retry = new AWSEBRetryPolicy();
+    private long retryDelay = -1;
+    private String lastStatus;
+    private String lastHealth;
+    private String failure;
+    private boolean timedOut = false;
+    private long started;
+    private long deadline;
+    private AWSEBPollingInterval polling;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile ScheduledFuture<?> nextStep;
+    private volatile boolean cancelled;
+
+    public AWSEBEnvironmentTracker(AWSElasticBeanstalk awseb, AWSEBEnvironmentPoller poller, EnvironmentDescription envd, BuildListener listener, String versionLabel) {
+        this.awseb = awseb;
+        this.poller = poller;
+        this.envd = envd;
+        this.listener = listener;
+        this.versionLabel = versionLabel;
+        
+        // We can make our requests and, hopefully, safely assume the environmentId won't change under us.
+        this.environmentId = envd.getEnvironmentId();
+
+        // Only the events from now on are logged.
+        registration = poller.register(awseb, envd);
+    }
+
+    private void log(String mask, Object... args) {
+        listener.getLogger().println(String.format(mask, args));
+    }
+
+    private void updateEnv() {
+        
+        log("'%s': Attempt %d/%d", envd.getEnvironmentName(), retry.getAttempt(), AWSEBRetryPolicy.MAX_ATTEMPTS);
+        
+        
+        UpdateEnvironmentRequest uavReq = new UpdateEnvironmentRequest().withEnvironmentId(environmentId).withVersionLabel(versionLabel);
+
+        try {
+            awseb.updateEnvironment(uavReq);
+        } catch (Exception e) {
+            if (cancelled) {
+                // Interrupted by the build being aborted.
+                return;
+            }
+            log("'%s': Problem:", envd.getEnvironmentName());
+            e.printStackTrace(listener.getLogger());
+            retryLater(e, "Unable to update environment!");
+            return;
+        }
+        // Only an update that went through is followed, one that failed is sent again.
+        isUpdated = true;
+        retry.onSuccess();
+        // Events from before, like those of the operation a retried update waited for, can't tell this update failed.
+        poller.skipEvents(registration);
+        poller.invalidate(environmentId);
+        isReady();
+    }
+
+    /**
+     * Schedules the failed step to be retried, unless the error is not worth retrying or
+     * the retries ran out.
+     */
+    private void retryLater(Exception e, String giveUpMessage) {
+        AWSEBRetryPolicy.ErrorClass errorClass = AWSEBRetryPolicy.classify(e);
+        retryDelay = retry.onFailure(errorClass);
+        if (retryDelay < 0) {
+            log("'%s': %s (%s error)", envd.getEnvironmentName(), giveUpMessage, errorClass.name().toLowerCase());
+            isComplete = true;
+        }
+    }
+    
+    private void isReady() {
+        try {
+            String envName = envd.getEnvironmentName();
+            
+            try {
+                // Only the events since the last ones logged, earliest first following jenkins logs.
+                List<EventDescription> events = poller.getEvents(registration);
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss zZ");
+                
+                for (EventDescription event : events) {
+                    Date eventDate = event.getEventDate();
+                    // 2015-04-13 20:12:44 UTC-0600
+                    String eventDateString = dateFormat.format(eventDate);
+                    log("'%s': EVENT [%s] (%s) %s", envName, eventDateString, event.getSeverity(), event.getMessage());
+                    if (failure == null) {
+                        failure = AWSEBFailureDetector.getFailure(event, versionLabel);
+                    }
+                }
+            } catch (Exception e) {
+                log("'%s': Unable to process events %s", envName, e.getMessage());
+            }
+            if (failure != null) {
+                // No need to wait for the rollback to settle, the update failed.
+                isComplete = true;
+                log("'%s': Update failed: %s", envName, failure);
+                return;
+            }
+
+            EnvironmentDescription lastEnv = poller.describe(awseb, environmentId);
+            if (lastEnv == null) {
+                isComplete = true;
+                log("'%s' is no longer found in ElasticBeanstalk!!!!", envName);
+                return;
+            }
+            retry.onSuccess();
+            lastStatus = lastEnv.getStatus();
+            String health = AWSEBFailureDetector.getHealth(lastEnv);
+            if (lastHealth != null && health != null && !health.equals(lastHealth)) {
+                log("'%s': Health changed from %s to %s", envName, lastHealth, health);
+            }
+            lastHealth = health;
+            if (lastEnv.getStatus().equals("Ready")) {
+                isComplete = true;
+                
+                log("'%s': Updated!", envName);
+                log("'%s': Current version is:'%s'", envName, lastEnv.getVersionLabel());
+                
+                if (lastEnv.getVersionLabel().equals(versionLabel)) {
+                    success = true;
+                    polling.finished();
+                    log("'%s': Update was successful", envName);
+                } else {
+                    success = false;
+                    log("'%s': Update failed, please check the recent events on the AWS console!!!!", envName);
+                }
+            } else {
+                log("'%s': Waiting for update to finish. Status: %s", envName, lastEnv.getStatus());
+            }
+        } catch (Exception e) {
+            if (cancelled) {
+                return;
+            }
+
+            log("Problem: " + e.getMessage());
+
+            retryLater(e, "unable to get environment status.");
+        }
+    }
+
+    public void printResults() {
+        StringBuilder status = new StringBuilder();
+        status.append("'");
+        status.append(envd.getEnvironmentName());
+        status.append("': ");
+        if (success) {
+            status.append("Completed successfully.");
+        } else if (timedOut) {
+            status.append("Timed out after ");
+            status.append(Util.getTimeSpanString(deadline - started));
+            status.append(", the update goes on in Elastic Beanstalk!");
+        } else if (failure != null) {
+            status.append("Failed! ");
+            status.append(failure);
+        } else {
+            if (isUpdated) {
+                status.append("Was updated, but couldn't be verified!");
+            } else {
+                status.append("Failed to be updated!!");
+            }
+        }
+        log(status.toString());
+    }
+    
+    public boolean isSuccessfull() {
+        return success;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public String getEnvironmentId() {
+        return environmentId;
+    }
+
+    public String getEnvironmentName() {
+        return envd.getEnvironmentName();
+    }
+
+    /**
+     * Starts updating the environment.
+     *
+     * @param deadline when to stop waiting for the update, in milliseconds since the epoch, 0 for never
+     */
+    public void start(long deadline) {
+        this.started = System.currentTimeMillis();
+        this.deadline = deadline;
+        polling = new AWSEBPollingInterval(environmentId);
+        schedule(0);
+    }
+
+    /**
+     * Waits until the update completed, or was cancelled.
+     */
+    public void await() throws InterruptedException {
+        while (!done.await(AWAIT_CHECK_SECONDS, TimeUnit.SECONDS)) {
+            if (SCHEDULER.isShutdown()) {
+                // Jenkins is stopping, the steps left won't run.
+                cancelled = true;
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Stops following the update, which goes on in Elastic Beanstalk.
+     *
+     * A call to AWS in progress isn't interrupted: it may be the call of the shared poller
+     * that the trackers of other builds wait for, which would fail them all. It ends within
+     * the request timeout of the client, and its step ends there.
+     */
+    public void cancel() {
+        cancelled = true;
+        ScheduledFuture<?> step = nextStep;
+        // A tracker that never started only has to stop being polled for.
+        if (step == null || step.cancel(false)) {
+            finish();
+        }
+    }
+
+    /**
+     * Stops the scheduler along with Jenkins. The steps waiting to run are dropped, and
+     * those running are interrupted as Jenkins is going away anyway.
+     */
+    @Terminator
+    public static void shutdown() {
+        SCHEDULER.shutdownNow();
+    }
+
+    private void schedule(long delayMilliseconds) {
+        try {
+            nextStep = SCHEDULER.schedule(this, delayMilliseconds, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log("'%s': Unable to follow the update: %s", envd.getEnvironmentName(), e.getMessage());
+            finish();
+        }
+    }
+
+    /**
+     * Takes a single step: sends the update or checks on it, then schedules the next step.
+     */
+    @Override
+    public void run() {
+        try {
+            if (cancelled) {
+                isComplete = true;
+            } else if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+                timedOut = true;
+                isComplete = true;
+                log("'%s': Timed out waiting for the update after %s", envd.getEnvironmentName(),
+                        Util.getTimeSpanString(System.currentTimeMillis() - started));
+            } else if (isUpdated) {
+                isReady();
+            } else {
+                updateEnv();
+            }
+        } catch (RuntimeException e) {
+            log("'%s': Problem: %s", envd.getEnvironmentName(), e.getMessage());
+            isComplete = true;
+        }
+        if (isComplete || cancelled) {
+            finish();
+            return;
+        }
+        long wait = retryDelay >= 0 ? retryDelay : polling.next(lastStatus);
+        retryDelay = -1;
+        if (deadline > 0) {
+            // Wakes up in time to tell the update timed out.
+            wait = Math.max(0, Math.min(wait, deadline - System.currentTimeMillis()));
+        }
+        log("'%s': Pausing update for %d seconds", envd.getEnvironmentName(), TimeUnit.MILLISECONDS.toSeconds(wait));
+        schedule(wait);
+    }
+
+    private void finish() {
+        // A cancelled step may still be running and finish as well.
+        if (finished.compareAndSet(false, true)) {
+            poller.unregister(registration);
+            done.countDown();
+        }
+    }
+}
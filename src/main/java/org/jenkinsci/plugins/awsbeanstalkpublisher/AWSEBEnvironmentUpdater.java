@@ -1,16 +1,19 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher;
 
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.Result;
 
-import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBSetup;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBElasticBeanstalkSetup;
@@ -23,8 +26,9 @@ import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
 import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
 
 public class AWSEBEnvironmentUpdater {
-    
-    private final static int MAX_THREAD_COUNT = 5;
+
+    // How long the environments of a wave may take to turn healthy before the next wave, at most.
+    private static final long HEALTH_GATE_MILLISECONDS = TimeUnit.MINUTES.toMillis(10);
     
     private final AbstractBuild<?, ?> build;
     private final BuildListener listener;
@@ -33,7 +37,17 @@ public class AWSEBEnvironmentUpdater {
     private final String applicationName;
     private final String versionLabel;
     private final AWSElasticBeanstalk awseb;
+    private final AWSEBEnvironmentPoller poller;
+    private final AWSEBRateLimiter.Usage usage = new AWSEBRateLimiter.Usage();
     private final boolean failOnError;
+    private final String waveSize;
+    private final long environmentTimeout;
+    private final long deploymentTimeout;
+    // When the whole deployment must be done, in milliseconds since the epoch, 0 for never.
+    private long deadline;
+    // The trackers looked up in the background, and whether nobody is going to use them.
+    private List<AWSEBEnvironmentTracker> prepared;
+    private boolean discarded;
     
     
     public AWSEBEnvironmentUpdater(AbstractBuild<?, ?> build, Launcher launcher, 
@@ -45,6 +59,9 @@ public class AWSEBEnvironmentUpdater {
         applicationName = AWSEBUtils.getValue(build, listener,envSetup.getApplicationName());
         versionLabel = AWSEBUtils.getValue(build, listener,envSetup.getVersionLabelFormat());
         failOnError = envSetup.getFailOnError();
+        waveSize = AWSEBUtils.getValue(build, listener, envSetup.getWaveSize());
+        environmentTimeout = TimeUnit.MINUTES.toMillis(envSetup.getEnvironmentTimeout());
+        deploymentTimeout = TimeUnit.MINUTES.toMillis(envSetup.getDeploymentTimeout());
         
 
         AWSEBCredentials credentials = envSetup.getActualcredentials(build, listener);
@@ -55,23 +72,109 @@ public class AWSEBEnvironmentUpdater {
         
         Region region = Region.getRegion(envSetup.getAwsRegion(build, listener));
         
-        awseb = AWSEBUtils.getElasticBeanstalk(provider, region);
+        awseb = AWSEBUtils.getElasticBeanstalk(provider, region, usage);
+        poller = AWSEBEnvironmentPoller.get(AWSEBUtils.getAccountKey(credentials, envSetup.getAwsRegion(build, listener)));
     }
     
+    /**
+     * Uploads the bundles, then updates the environments. The environments are looked
+     * up and their event cursors set up in the background while the bundles are built
+     * and uploaded, which hides the latency of these calls behind the zipping.
+     */
     public boolean perform() throws Exception{
-        for (AWSEBSetup extension : envSetup.getExtensions()) {
-            if (extension instanceof AWSEBS3Setup){
-                AWSEBS3Setup s3 = (AWSEBS3Setup) extension;
-                AWSEBS3Uploader uploader = new AWSEBS3Uploader(build, listener, envSetup, s3);
-                uploader.uploadArchive(awseb);
+        if (!checkWaveSize()) {
+            return false;
+        }
+        deadline = getDeadline(System.currentTimeMillis(), deploymentTimeout, 0);
+        try {
+            return uploadAndUpdate();
+        } finally {
+            if (usage.getThrottled() > 0 || usage.getWaitMillis() > 0) {
+                AWSEBUtils.log(listener, "AWS throttled %d calls of application %s, which waited %s for the rate limit",
+                        usage.getThrottled(), applicationName, Util.getTimeSpanString(usage.getWaitMillis()));
+            }
+            AWSEBDeploymentReport.get(build).addApiUsage(usage.getThrottled(), usage.getWaitMillis());
+        }
+    }
+
+    private boolean uploadAndUpdate() throws Exception {
+        ExecutorService preflight = Executors.newSingleThreadExecutor();
+        Future<List<AWSEBEnvironmentTracker>> updaters;
+        try {
+            updaters = preflight.submit(new Callable<List<AWSEBEnvironmentTracker>>() {
+                @Override
+                public List<AWSEBEnvironmentTracker> call() {
+                    return publish(prepareUpdaters());
+                }
+            });
+        } finally {
+            preflight.shutdown();
+        }
+
+        try {
+            for (AWSEBSetup extension : envSetup.getExtensions()) {
+                if (extension instanceof AWSEBS3Setup){
+                    AWSEBS3Setup s3 = (AWSEBS3Setup) extension;
+                    AWSEBS3Uploader uploader = new AWSEBS3Uploader(build, listener, envSetup, s3);
+                    uploader.setUsage(usage);
+                    uploader.uploadArchive(awseb);
+                }
+            }
+        } catch (Exception e) {
+            discard(updaters);
+            throw e;
+        }
+
+        try {
+            return updateEnvironments(updaters.get());
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            // The build was aborted while the environments were looked up.
+            discard(updaters);
+            throw e;
+        }
+    }
+
+    private synchronized List<AWSEBEnvironmentTracker> publish(List<AWSEBEnvironmentTracker> updaters) {
+        if (discarded) {
+            cancel(updaters);
+        } else {
+            prepared = updaters;
+        }
+        return updaters;
+    }
+
+    /**
+     * Stops the background lookup, and the polling for the trackers it already set up,
+     * whether it is still running or done.
+     */
+    private void discard(Future<List<AWSEBEnvironmentTracker>> updaters) {
+        updaters.cancel(true);
+        synchronized (this) {
+            discarded = true;
+            if (prepared != null) {
+                cancel(prepared);
             }
         }
-        
-        return updateEnvironments();
+    }
+
+    private static void cancel(List<AWSEBEnvironmentTracker> updaters) {
+        for (AWSEBEnvironmentTracker updater : updaters) {
+            updater.cancel();
+        }
     }
     
 
     public boolean updateEnvironments() throws InterruptedException {
+        if (!checkWaveSize()) {
+            return false;
+        }
+        deadline = getDeadline(System.currentTimeMillis(), deploymentTimeout, 0);
+        return updateEnvironments(prepareUpdaters());
+    }
+
+    private List<EnvironmentDescription> getEnvironments() {
         List<EnvironmentDescription> envList = new ArrayList<EnvironmentDescription>(10); 
         
         for (AWSEBSetup extension : envSetup.getEnvLookup()) {
@@ -80,54 +183,203 @@ public class AWSEBEnvironmentUpdater {
                 envList.addAll(envLookup.getEnvironments(build, listener, awseb, applicationName));
             }
         }
-        
-        if (envList.size() <= 0) {
+        return envList;
+    }
+
+    /**
+     * Looks up the environments to update, and where their events currently end.
+     */
+    private List<AWSEBEnvironmentTracker> prepareUpdaters() {
+        List<AWSEBEnvironmentTracker> updaters = new ArrayList<AWSEBEnvironmentTracker>();
+        boolean complete = false;
+        try {
+            for (EnvironmentDescription envd : getEnvironments()) {
+                AWSEBUtils.log(listener, "Environment found (environment id='%s', name='%s'). "
+                        + "Attempting to update environment to version label '%s'", 
+                        envd.getEnvironmentId(), envd.getEnvironmentName(), versionLabel);
+                updaters.add(new AWSEBEnvironmentTracker(awseb, poller, envd, listener, versionLabel));
+            }
+            complete = true;
+            return updaters;
+        } finally {
+            if (!complete) {
+                cancel(updaters);
+            }
+        }
+    }
+
+    private boolean updateEnvironments(List<AWSEBEnvironmentTracker> updaters) throws InterruptedException {
+        if (updaters.size() <= 0) {
             AWSEBUtils.log(listener, "No environments found matching applicationName:%s", 
                     applicationName);
-            if (envSetup.getFailOnError()) {
-                listener.finished(Result.FAILURE);
-                return false;
-            } else {
-                listener.finished(Result.SUCCESS);
+            return !envSetup.getFailOnError();
+        }
+
+        int size = getWaveSize(waveSize, updaters.size());
+        int waves = (updaters.size() + size - 1) / size;
+        try {
+            for (int wave = 0; wave < waves; wave++) {
+                List<AWSEBEnvironmentTracker> current = updaters.subList(wave * size, Math.min(updaters.size(), (wave + 1) * size));
+                if (!updateWave(current, wave + 1, waves)) {
+                    if (wave + 1 < waves) {
+                        AWSEBUtils.log(listener, "Wave %d/%d failed, not updating the %d remaining environments",
+                                wave + 1, waves, updaters.size() - (wave + 1) * size);
+                    }
+                    break;
+                }
+            }
+        } finally {
+            // Only does something when the build was aborted while waiting.
+            cancel(updaters);
+        }
+
+        return printResults(updaters);
+    }
+
+    /**
+     * Updates the environments of a wave, then waits for them to be healthy if more waves follow.
+     *
+     * @return whether the next wave may start
+     */
+    private boolean updateWave(List<AWSEBEnvironmentTracker> wave, int number, int waves) throws InterruptedException {
+        long started = System.currentTimeMillis();
+        if (deadline > 0 && started >= deadline) {
+            AWSEBUtils.log(listener, "Deployment timed out after %s, not updating %d environments",
+                    Util.getTimeSpanString(deploymentTimeout), wave.size());
+            return false;
+        }
+        if (waves > 1) {
+            AWSEBUtils.log(listener, "Wave %d/%d: updating %d environments", number, waves, wave.size());
+        }
+        long environmentDeadline = getDeadline(started, environmentTimeout, deadline);
+        for (AWSEBEnvironmentTracker updater : wave) {
+            updater.start(environmentDeadline);
+        }
+        boolean success = true;
+        for (AWSEBEnvironmentTracker updater : wave) {
+            updater.await();
+            success &= updater.isSuccessfull();
+        }
+        if (waves == 1) {
+            return success;
+        }
+        if (success && number < waves) {
+            success = waitUntilHealthy(wave);
+        }
+        AWSEBUtils.log(listener, "Wave %d/%d: %s in %s", number, waves, success ? "done" : "failed",
+                Util.getTimeSpanString(System.currentTimeMillis() - started));
+        return success;
+    }
+
+    /**
+     * The health gate between two waves: all the environments of the wave must be Green.
+     */
+    private boolean waitUntilHealthy(List<AWSEBEnvironmentTracker> wave) throws InterruptedException {
+        long started = System.currentTimeMillis();
+        long gateDeadline = getDeadline(started, getHealthGate(environmentTimeout), deadline);
+        while (true) {
+            List<String> unhealthy = new ArrayList<String>();
+            for (AWSEBEnvironmentTracker updater : wave) {
+                EnvironmentDescription env = poller.describe(awseb, updater.getEnvironmentId());
+                String health = env == null ? null : env.getHealth();
+                if ("Red".equals(health)) {
+                    AWSEBUtils.log(listener, "'%s' is unhealthy (Red) after its update", updater.getEnvironmentName());
+                    return false;
+                }
+                if (!"Green".equals(health)) {
+                    unhealthy.add(String.format("'%s' (%s)", updater.getEnvironmentName(), health));
+                }
+            }
+            if (unhealthy.isEmpty()) {
                 return true;
             }
+            if (System.currentTimeMillis() > gateDeadline) {
+                AWSEBUtils.log(listener, "Environments still not healthy after %s: %s",
+                        Util.getTimeSpanString(System.currentTimeMillis() - started), unhealthy);
+                return false;
+            }
+            AWSEBUtils.log(listener, "Waiting for the environments to be healthy: %s", unhealthy);
+            Thread.sleep(AWSEBPollingInterval.MIN_INTERVAL_MILLISECONDS);
         }
+    }
 
-        ExecutorService pool = Executors.newFixedThreadPool(MAX_THREAD_COUNT);
+    /**
+     * Environments get no longer to turn healthy than to update.
+     *
+     * @param environmentTimeout how long an environment may take to update, 0 for no limit
+     */
+    static long getHealthGate(long environmentTimeout) {
+        return environmentTimeout > 0 ? Math.min(HEALTH_GATE_MILLISECONDS, environmentTimeout) : HEALTH_GATE_MILLISECONDS;
+    }
 
-        List<AWSEBEnvironmentUpdaterThread> updaters = new ArrayList<AWSEBEnvironmentUpdaterThread>();
-        for (EnvironmentDescription envd : envList) {
-            AWSEBUtils.log(listener, "Environment found (environment id='%s', name='%s'). "
-                    + "Attempting to update environment to version label '%s'", 
-                    envd.getEnvironmentId(), envd.getEnvironmentName(), versionLabel);
-            updaters.add(new AWSEBEnvironmentUpdaterThread(awseb, envd, listener, versionLabel));
+    /**
+     * @param started when the wait starts, in milliseconds since the epoch
+     * @param timeout how long to wait at most, 0 for no limit
+     * @param deploymentDeadline when the deployment must be done, 0 for never
+     * @return when to stop waiting, the deadline of the deployment if it comes first, 0 for never
+     */
+    static long getDeadline(long started, long timeout, long deploymentDeadline) {
+        if (timeout <= 0) {
+            return deploymentDeadline;
+        }
+        return deploymentDeadline > 0 ? Math.min(started + timeout, deploymentDeadline) : started + timeout;
+    }
+
+    /**
+     * @param spec a count, a percentage like 25%, or blank for all the environments at once
+     * @throws IllegalArgumentException if the spec is neither
+     */
+    public static int getWaveSize(String spec, int environments) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return Math.max(1, environments);
+        }
+        String value = spec.trim();
+        double size;
+        try {
+            if (value.endsWith("%")) {
+                double percent = Double.parseDouble(value.substring(0, value.length() - 1).trim());
+                if (percent <= 0 || percent > 100) {
+                    throw new NumberFormatException();
+                }
+                size = Math.ceil(environments * percent / 100);
+            } else {
+                size = Integer.parseInt(value);
+                if (size < 1) {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid wave size '%s', expected a number of environments like 5 or a percentage like 25%%", spec));
         }
-        List<Future<AWSEBEnvironmentUpdaterThread>> results = pool.invokeAll(updaters);
+        return (int) Math.max(1, Math.min(environments, size));
+    }
 
-        return printResults(results);
+    /**
+     * A wave size that can't be understood fails the deployment before anything is
+     * uploaded, rather than updating all the environments at once.
+     */
+    private boolean checkWaveSize() {
+        try {
+            getWaveSize(waveSize, 1);
+            return true;
+        } catch (IllegalArgumentException e) {
+            AWSEBUtils.log(listener, "%s", e.getMessage());
+            return false;
+        }
     }
 
-    private boolean printResults(List<Future<AWSEBEnvironmentUpdaterThread>> results) {
-        PrintStream log = listener.getLogger();
+    private boolean printResults(List<AWSEBEnvironmentTracker> results) {
         boolean allSuccess = true;
-        for (Future<AWSEBEnvironmentUpdaterThread> future : results) {
-            try {
-                AWSEBEnvironmentUpdaterThread result = future.get();
-                allSuccess &= result.isSuccessfull();
-                result.printResults();
-            } catch (Exception e) {
-                AWSEBUtils.log(listener, "Unable to get results from update");
-                e.printStackTrace(log);
-            }
+        for (AWSEBEnvironmentTracker result : results) {
+            allSuccess &= result.isSuccessfull();
+            result.printResults();
         }
         if (failOnError && !allSuccess) {
-            listener.finished(Result.FAILURE);
             build.setResult(Result.FAILURE);
             return false;
-        } else {
-            listener.finished(Result.SUCCESS);
-            return true;
         }
+        return true;
     }
 
 }
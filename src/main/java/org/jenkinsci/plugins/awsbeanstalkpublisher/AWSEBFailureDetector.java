@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventSeverity;
+
+/**
+ * Tells when an update has certainly failed, without waiting for the environment to
+ * be Ready again: Elastic Beanstalk reports a failed deployment with ERROR events, or
+ * messages about rolling back, minutes before the rollback settles.
+ *
+ * Health transitions are not a failure, so DescribeEnvironmentHealth isn't called: it
+ * needs enhanced health reporting, and its status often lags behind a successful update
+ * the same as the Health and HealthStatus of the environment, which are only logged.
+ */
+public class AWSEBFailureDetector {
+
+    // Lower case, the start of the message of an event of any severity.
+    private static final String[] FAILURE_MESSAGES = {
+        "failed to deploy application",
+        "incorrect application version found on",
+        "update environment operation is complete, but with errors",
+    };
+
+    // Lower case, the start of the message of an event naming the version being deployed.
+    private static final String[] ROLLBACK_MESSAGES = {
+        "rolling back",
+        "rolled back",
+        "rollback of",
+    };
+
+    private AWSEBFailureDetector() {
+    }
+
+    /**
+     * @param versionLabel the version being deployed
+     * @return why the update failed, or null if the event doesn't tell it did
+     */
+    public static String getFailure(EventDescription event, String versionLabel) {
+        String severity = event.getSeverity();
+        if (EventSeverity.ERROR.toString().equals(severity) || EventSeverity.FATAL.toString().equals(severity)) {
+            return String.format("%s event: %s", severity, event.getMessage());
+        }
+        if (event.getMessage() == null) {
+            return null;
+        }
+        String message = event.getMessage().toLowerCase();
+        for (String failure : FAILURE_MESSAGES) {
+            if (message.startsWith(failure)) {
+                return String.format("Event: %s", event.getMessage());
+            }
+        }
+        // A rollback of some other version, such as a configuration change, isn't ours.
+        if (versionLabel != null && event.getMessage().contains(versionLabel)) {
+            for (String rollback : ROLLBACK_MESSAGES) {
+                if (message.startsWith(rollback)) {
+                    return String.format("Event: %s", event.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the health of the environment, with the enhanced health status if it has one
+     */
+    public static String getHealth(EnvironmentDescription env) {
+        if (env.getHealthStatus() == null) {
+            return env.getHealth();
+        }
+        return String.format("%s, %s", env.getHealth(), env.getHealthStatus());
+    }
+
+}
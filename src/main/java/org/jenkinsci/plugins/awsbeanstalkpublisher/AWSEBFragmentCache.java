@@ -0,0 +1,190 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.Util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the deflated data of bundle entries on the node, so unchanged files aren't
+ * compressed again. Fragments are renamed into place, so concurrent builds never
+ * see partial ones, and the least recently used are evicted over the size limit.
+ */
+public class AWSEBFragmentCache {
+
+    private static final String SUFFIX = ".fragment";
+
+    private final File directory;
+    private final long maxSize;
+    private final String settings;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param settings description of the compression settings, part of every key
+     */
+    public AWSEBFragmentCache(File directory, long maxSize, String settings) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.settings = settings;
+    }
+
+    public static class Fragment {
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final byte[] data;
+
+        public Fragment(int method, long crc, long size, byte[] data) {
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    public String key(String path, byte[] content) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        digest.update(settings.getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(path.getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(content);
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * @return the cached fragment, or null when there is none or it can't be read
+     */
+    public Fragment get(String key) {
+        File file = new File(directory, key + SUFFIX);
+        if (!file.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                int method = in.readInt();
+                long crc = in.readLong();
+                long size = in.readLong();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                Fragment fragment = new Fragment(method, crc, size, data);
+                // Recently used fragments are evicted last.
+                file.setLastModified(System.currentTimeMillis());
+                hits.incrementAndGet();
+                return fragment;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Evicted by another build meanwhile, or damaged: compress the entry again.
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, Fragment fragment) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        File temp = File.createTempFile("fragment-", ".tmp", directory);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+            try {
+                out.writeInt(fragment.method);
+                out.writeLong(fragment.crc);
+                out.writeLong(fragment.size);
+                out.writeInt(fragment.data.length);
+                out.write(fragment.data);
+            } finally {
+                out.close();
+            }
+            File file = new File(directory, key + SUFFIX);
+            if (!temp.renameTo(file) && !file.isFile()) {
+                throw new IOException("Unable to create " + file);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    public void evict() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Long.valueOf(lastModified[first]).compareTo(lastModified[second]);
+            }
+        });
+        for (int i = 0; i < order.length && size > maxSize; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+}
@@ -0,0 +1,589 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.HttpMethod;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * Uploads a bundle to S3 as a multipart upload, several parts at once, each part
+ * retried on its own.
+ */
+public class AWSEBMultipartUploader {
+
+    public static final long MB = 1024L * 1024L;
+    // S3 limits for multipart uploads.
+    public static final long MIN_PART_SIZE = 5 * MB;
+    public static final long MAX_PART_SIZE = 5 * 1024 * MB;
+    public static final int MAX_PARTS = 10000;
+
+    // Streamed parts are held in memory, so they get a smaller default and an upper bound.
+    public static final long DEFAULT_STREAM_PART_SIZE = 16 * MB;
+    public static final long MAX_STREAM_PART_SIZE = 512 * MB;
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int DEFAULT_PART_RETRIES = 3;
+
+    // When auto-tuning, give every worker a few parts so the pool stays busy until the end.
+    private static final int AUTO_TUNE_PARTS_PER_THREAD = 4;
+    private static final long RETRY_BASE_DELAY_MILLISECONDS = TimeUnit.SECONDS.toMillis(1);
+    private static final long PRESIGNED_URL_EXPIRATION_MILLISECONDS = TimeUnit.HOURS.toMillis(1);
+
+    private final AmazonS3 s3;
+    private final String bucketName;
+    private final String objectKey;
+    private final TaskListener listener;
+    private final long configuredPartSize;
+    private final int concurrency;
+    private final int maxPartRetries;
+
+    private ObjectMetadata metadata = new ObjectMetadata();
+    private Tracker tracker;
+    private AWSEBUploadScheduler.Lease lease;
+    private String resumeUploadId;
+    private long resumePartSize;
+
+    /**
+     * Told when an upload starts and when it is no longer pending.
+     */
+    public interface Tracker {
+        void started(String uploadId, long partSize);
+
+        void finished(String uploadId);
+    }
+
+    /**
+     * @param partSize part size in bytes, or 0 to derive it from the bundle length
+     */
+    public AWSEBMultipartUploader(AmazonS3 s3, String bucketName, String objectKey, TaskListener listener,
+            long partSize, int concurrency, int maxPartRetries) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.listener = listener;
+        this.configuredPartSize = partSize;
+        this.concurrency = concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+        this.maxPartRetries = maxPartRetries >= 0 ? maxPartRetries : DEFAULT_PART_RETRIES;
+    }
+
+    public void setMetadata(ObjectMetadata metadata) {
+        this.metadata = metadata;
+    }
+
+    public void setLease(AWSEBUploadScheduler.Lease lease) {
+        this.lease = lease;
+    }
+
+    /**
+     * A failed upload is then left in S3 for a later build to resume.
+     */
+    public void setTracker(Tracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * Continues an earlier upload, skipping the parts S3 already has.
+     */
+    public void resume(String uploadId, long partSize) {
+        this.resumeUploadId = uploadId;
+        this.resumePartSize = partSize;
+    }
+
+    public static long choosePartSize(long contentLength, long configuredPartSize, int concurrency) {
+        long partSize = configuredPartSize;
+        if (partSize <= 0) {
+            partSize = contentLength / (Math.max(concurrency, 1) * AUTO_TUNE_PARTS_PER_THREAD);
+            // Round up to a whole megabyte, it makes the logs easier to read.
+            partSize = ((partSize + MB - 1) / MB) * MB;
+        }
+        long minForPartCount = (contentLength + MAX_PARTS - 1) / MAX_PARTS;
+        partSize = Math.max(partSize, minForPartCount);
+        return Math.min(Math.max(partSize, MIN_PART_SIZE), MAX_PART_SIZE);
+    }
+
+    public void upload(File file) throws IOException, InterruptedException {
+        long contentLength = file.length();
+        long partSize = resumeUploadId != null ? resumePartSize : choosePartSize(contentLength, configuredPartSize, concurrency);
+
+        if (contentLength <= partSize) {
+            AWSEBUtils.log(listener, "Uploading %d bytes in a single request", contentLength);
+            metadata.setContentLength(contentLength);
+            s3.putObject(paced(new PutObjectRequest(bucketName, objectKey, file).withMetadata(metadata)));
+            return;
+        }
+
+        int partCount = (int) ((contentLength + partSize - 1) / partSize);
+        AWSEBUtils.log(listener, "Uploading %d bytes as %d parts of %d MB (%d at a time)",
+                contentLength, partCount, partSize / MB, concurrency);
+
+        Map<Integer, PartETag> uploaded = new HashMap<Integer, PartETag>();
+        String uploadId = startOrResume(contentLength, partSize, uploaded);
+
+        boolean completed = false;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, partCount));
+        try {
+            CompletionService<PartETag> parts = new ExecutorCompletionService<PartETag>(pool);
+            for (int i = 0; i < partCount; i++) {
+                if (uploaded.containsKey(i + 1)) {
+                    continue;
+                }
+                long offset = i * partSize;
+                final UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(bucketName)
+                        .withKey(objectKey)
+                        .withUploadId(uploadId)
+                        .withPartNumber(i + 1)
+                        .withFile(file)
+                        .withFileOffset(offset)
+                        .withPartSize(Math.min(partSize, contentLength - offset))
+                        .withLastPart(i == partCount - 1);
+                parts.submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() throws Exception {
+                        return uploadPart(request);
+                    }
+                });
+            }
+
+            List<PartETag> etags = new ArrayList<PartETag>(uploaded.values());
+            while (etags.size() < partCount) {
+                etags.add(waitFor(parts.take()));
+            }
+
+            complete(uploadId, etags);
+            completed = true;
+        } finally {
+            pool.shutdownNow();
+            finish(uploadId, completed);
+        }
+    }
+
+    /**
+     * The parts are sent by the node holding the bundle, through presigned URLs.
+     */
+    public void upload(FilePath bundle, long contentLength) throws IOException, InterruptedException {
+        // The agent streams each part with a fixed int length.
+        long partSize = resumeUploadId != null ? resumePartSize
+                : Math.min(choosePartSize(contentLength, configuredPartSize, concurrency), Integer.MAX_VALUE);
+        int partCount = (int) Math.max(1, (contentLength + partSize - 1) / partSize);
+        AWSEBUtils.log(listener, "Uploading %d bytes from %s as %d parts of %d MB (%d at a time)",
+                contentLength, bundle.getRemote(), partCount, partSize / MB, concurrency);
+
+        Map<Integer, PartETag> uploaded = new HashMap<Integer, PartETag>();
+        String uploadId = startOrResume(contentLength, partSize, uploaded);
+
+        boolean completed = false;
+        try {
+            while (uploaded.size() < partCount) {
+                int before = uploaded.size();
+                String[] partETags = bundle.act(new AWSEBPresignedPartUploader(
+                        presignParts(uploadId, partCount, uploaded), partSize, concurrency, maxPartRetries, listener));
+                for (int i = 0; i < partCount; i++) {
+                    if (partETags[i] != null) {
+                        uploaded.put(i + 1, new PartETag(i + 1, partETags[i]));
+                    }
+                }
+                if (uploaded.size() < partCount) {
+                    // Parts refused with fresh URLs aren't allowed at all, new URLs wouldn't help.
+                    if (uploaded.size() == before) {
+                        throw new IOException("S3 refused the presigned URLs of all the parts");
+                    }
+                    AWSEBUtils.log(listener, "Presigning new URLs for the %d parts left", partCount - uploaded.size());
+                }
+            }
+            complete(uploadId, new ArrayList<PartETag>(uploaded.values()));
+            completed = true;
+        } finally {
+            finish(uploadId, completed);
+        }
+    }
+
+    private URL[] presignParts(String uploadId, int partCount, Map<Integer, PartETag> uploaded) {
+        Date expiration = new Date(System.currentTimeMillis() + PRESIGNED_URL_EXPIRATION_MILLISECONDS);
+        URL[] partUrls = new URL[partCount];
+        for (int i = 0; i < partCount; i++) {
+            if (uploaded.containsKey(i + 1)) {
+                // Already uploaded, the agent skips it.
+                continue;
+            }
+            GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(bucketName, objectKey, HttpMethod.PUT)
+                    .withExpiration(expiration);
+            request.addRequestParameter("uploadId", uploadId);
+            request.addRequestParameter("partNumber", String.valueOf(i + 1));
+            partUrls[i] = s3.generatePresignedUrl(request);
+        }
+        return partUrls;
+    }
+
+    private String startOrResume(long contentLength, long partSize, Map<Integer, PartETag> uploaded) {
+        if (resumeUploadId != null) {
+            if (listUploadedParts(resumeUploadId, contentLength, partSize, uploaded)) {
+                AWSEBUtils.log(listener, "Resuming upload %s, %d parts already uploaded", resumeUploadId, uploaded.size());
+                return resumeUploadId;
+            }
+            AWSEBUtils.log(listener, "Upload %s can't be resumed anymore, starting over", resumeUploadId);
+            if (tracker != null) {
+                tracker.finished(resumeUploadId);
+            }
+        }
+        String uploadId = s3.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, objectKey, metadata)).getUploadId();
+        if (tracker != null) {
+            tracker.started(uploadId, partSize);
+        }
+        return uploadId;
+    }
+
+    /**
+     * @return false when the upload doesn't exist anymore
+     */
+    private boolean listUploadedParts(String uploadId, long contentLength, long partSize, Map<Integer, PartETag> uploaded) {
+        ListPartsRequest request = new ListPartsRequest(bucketName, objectKey, uploadId);
+        try {
+            PartListing listing;
+            do {
+                listing = s3.listParts(request);
+                for (PartSummary part : listing.getParts()) {
+                    long expectedSize = Math.min(partSize, contentLength - (part.getPartNumber() - 1) * partSize);
+                    // A part of another size doesn't belong to this bundle, it gets uploaded again.
+                    if (part.getSize() == expectedSize) {
+                        uploaded.put(part.getPartNumber(), new PartETag(part.getPartNumber(), part.getETag()));
+                    }
+                }
+                request.setPartNumberMarker(listing.getNextPartNumberMarker());
+            } while (listing.isTruncated());
+            return true;
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == 404) {
+                uploaded.clear();
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A failed upload is aborted, unless it is tracked for the next build to resume.
+     */
+    private void finish(String uploadId, boolean completed) {
+        if (tracker == null) {
+            if (!completed) {
+                abort(uploadId);
+            }
+        } else if (completed) {
+            tracker.finished(uploadId);
+        } else {
+            AWSEBUtils.log(listener, "Upload %s is kept in S3, the next build of this bundle resumes it", uploadId);
+        }
+    }
+
+    /**
+     * Aborts an upload that won't be completed, so S3 stops charging for its parts.
+     *
+     * @return false if it couldn't be aborted, which is logged
+     */
+    public static boolean abort(AmazonS3 s3, String bucketName, String key, String uploadId, TaskListener listener) {
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            return true;
+        } catch (AmazonServiceException e) {
+            if ("NoSuchUpload".equals(e.getErrorCode())) {
+                // Already completed or aborted.
+                return true;
+            }
+            AWSEBUtils.log(listener, "Unable to abort stale upload %s of %s: %s", uploadId, key, e.getMessage());
+        } catch (AmazonClientException e) {
+            AWSEBUtils.log(listener, "Unable to abort stale upload %s of %s: %s", uploadId, key, e.getMessage());
+        }
+        return false;
+    }
+
+    public void upload(InputStream in) throws IOException, InterruptedException {
+        StreamingUpload out = openStream();
+        boolean copied = false;
+        try {
+            IOUtils.copy(in, out);
+            copied = true;
+        } finally {
+            // Whatever failed, the parts sent so far are removed and the pool stopped.
+            if (!copied) {
+                out.abort();
+            }
+        }
+        out.close();
+    }
+
+    /**
+     * A stream uploaded part by part as it is written.
+     */
+    public StreamingUpload openStream() {
+        int partSize = (int) Math.min(Math.max(configuredPartSize > 0 ? configuredPartSize : DEFAULT_STREAM_PART_SIZE, MIN_PART_SIZE), MAX_STREAM_PART_SIZE);
+        return new StreamingUpload(partSize);
+    }
+
+    /**
+     * At most one buffer per concurrent part is held in memory; writing blocks until
+     * a part finishes uploading and frees its buffer.
+     */
+    public class StreamingUpload extends OutputStream {
+        private final int partSize;
+        private final Semaphore buffers = new Semaphore(concurrency);
+        private final List<PartETag> etags = new ArrayList<PartETag>();
+
+        private ExecutorService pool;
+        private CompletionService<PartETag> parts;
+        private String uploadId;
+        private int partCount;
+        private boolean closed;
+
+        private byte[] buffer;
+        private int filled;
+
+        StreamingUpload(int partSize) {
+            this.partSize = partSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (buffer == null) {
+                    acquireBuffer();
+                }
+                int count = Math.min(len, partSize - filled);
+                System.arraycopy(b, off, buffer, filled, count);
+                filled += count;
+                off += count;
+                len -= count;
+                if (filled == partSize) {
+                    submitPart();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (uploadId == null) {
+                    // Everything fitted in the first part, no need for a multipart upload.
+                    byte[] data = buffer == null ? new byte[0] : Arrays.copyOf(buffer, filled);
+                    AWSEBUtils.log(listener, "Uploading %d bytes in a single request", data.length);
+                    metadata.setContentLength(data.length);
+                    s3.putObject(paced(new PutObjectRequest(bucketName, objectKey, new ByteArrayInputStream(data), metadata)));
+                    return;
+                }
+                if (filled > 0) {
+                    submitPart();
+                }
+                while (etags.size() < partCount) {
+                    etags.add(waitFor(parts.take()));
+                }
+                AWSEBUtils.log(listener, "Uploaded %d parts", partCount);
+                complete(uploadId, etags);
+            } catch (InterruptedException e) {
+                abort();
+                throw new InterruptedIOException("Upload interrupted");
+            } catch (IOException e) {
+                abort();
+                throw e;
+            } catch (RuntimeException e) {
+                abort();
+                throw e;
+            } finally {
+                if (pool != null) {
+                    pool.shutdownNow();
+                }
+            }
+        }
+
+        public void abort() {
+            closed = true;
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (uploadId != null) {
+                AWSEBMultipartUploader.this.abort(uploadId);
+                uploadId = null;
+            }
+        }
+
+        private void acquireBuffer() throws IOException {
+            try {
+                buffers.acquire();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Upload interrupted");
+            }
+            buffer = new byte[partSize];
+            filled = 0;
+        }
+
+        private void submitPart() throws IOException {
+            if (uploadId == null) {
+                AWSEBUtils.log(listener, "Streaming upload in parts of %d MB (%d at a time)", partSize / MB, concurrency);
+                uploadId = s3.initiateMultipartUpload(
+                        new InitiateMultipartUploadRequest(bucketName, objectKey, metadata)).getUploadId();
+                pool = Executors.newFixedThreadPool(concurrency);
+                parts = new ExecutorCompletionService<PartETag>(pool);
+            }
+            if (++partCount > MAX_PARTS) {
+                throw new IOException(String.format("Bundle needs more than %d parts of %d MB, increase the part size", MAX_PARTS, partSize / MB));
+            }
+            final UploadPartRequest request = new UploadPartRequest()
+                    .withBucketName(bucketName)
+                    .withKey(objectKey)
+                    .withUploadId(uploadId)
+                    .withPartNumber(partCount)
+                    .withPartSize(filled);
+            final byte[] data = filled == partSize ? buffer : Arrays.copyOf(buffer, filled);
+            buffer = null;
+            filled = 0;
+            parts.submit(new Callable<PartETag>() {
+                @Override
+                public PartETag call() throws Exception {
+                    try {
+                        return uploadPart(request, data);
+                    } finally {
+                        buffers.release();
+                    }
+                }
+            });
+
+            // Collect whatever finished meanwhile, so a failed part stops the producer early.
+            try {
+                Future<PartETag> done;
+                while ((done = parts.poll()) != null) {
+                    etags.add(waitFor(done));
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Upload interrupted");
+            }
+        }
+    }
+
+    private void complete(String uploadId, List<PartETag> etags) {
+        Collections.sort(etags, new Comparator<PartETag>() {
+            @Override
+            public int compare(PartETag first, PartETag second) {
+                return first.getPartNumber() - second.getPartNumber();
+            }
+        });
+        s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, objectKey, uploadId, etags));
+    }
+
+    private PartETag uploadPart(UploadPartRequest request) throws InterruptedException {
+        return uploadPart(request, null);
+    }
+
+    /**
+     * @param data the part contents when they are held in memory, re-read on every attempt
+     */
+    private PartETag uploadPart(UploadPartRequest request, byte[] data) throws InterruptedException {
+        int attempt = 0;
+        while (true) {
+            try {
+                if (data != null) {
+                    request.setInputStream(new ByteArrayInputStream(data));
+                }
+                return s3.uploadPart(paced(request)).getPartETag();
+            } catch (AmazonClientException e) {
+                if (attempt++ >= maxPartRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                long delay = RETRY_BASE_DELAY_MILLISECONDS << (attempt - 1);
+                AWSEBUtils.log(listener, "Part %d failed (%s), retrying in %d ms (attempt %d/%d)",
+                        request.getPartNumber(), e.getMessage(), delay, attempt, maxPartRetries);
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private <T extends AmazonWebServiceRequest> T paced(T request) {
+        if (lease != null) {
+            request.setGeneralProgressListener(lease.newProgressListener());
+        }
+        return request;
+    }
+
+    private static boolean isRetryable(AmazonClientException e) {
+        if (e instanceof AmazonServiceException) {
+            int status = ((AmazonServiceException) e).getStatusCode();
+            // The upload is gone or we aren't allowed to write to it, no point trying again.
+            return status != 403 && status != 404;
+        }
+        return true;
+    }
+
+    private static PartETag waitFor(Future<PartETag> part) throws IOException, InterruptedException {
+        try {
+            return part.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("Unable to upload part", cause);
+        }
+    }
+
+    private void abort(String uploadId) {
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, objectKey, uploadId));
+        } catch (AmazonClientException e) {
+            AWSEBUtils.log(listener, "Unable to abort multipart upload %s: %s", uploadId, e.getMessage());
+        }
+    }
+
+}
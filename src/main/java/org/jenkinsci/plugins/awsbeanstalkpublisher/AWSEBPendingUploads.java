@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Multipart uploads of a job started but not completed, for the next build to resume.
+ * Kept in the job directory, as a retry is a new build.
+ */
+public class AWSEBPendingUploads {
+
+    private static final String FILE_NAME = "awseb-pending-uploads.xml";
+
+    private List<Upload> uploads = new ArrayList<Upload>();
+
+    public static class Upload {
+        private final String bucketName;
+        private final String objectKey;
+        private final String uploadId;
+        private final String md5;
+        private final long length;
+        private final long partSize;
+        private final long started;
+
+        public Upload(String bucketName, String objectKey, String uploadId, String md5, long length, long partSize, long started) {
+            this.bucketName = bucketName;
+            this.objectKey = objectKey;
+            this.uploadId = uploadId;
+            this.md5 = md5;
+            this.length = length;
+            this.partSize = partSize;
+            this.started = started;
+        }
+
+        public String getBucketName() {
+            return bucketName;
+        }
+
+        public String getObjectKey() {
+            return objectKey;
+        }
+
+        public String getUploadId() {
+            return uploadId;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getPartSize() {
+            return partSize;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+    }
+
+    /**
+     * @return the pending upload of a bundle with this checksum and length to this key, if any
+     */
+    public static synchronized Upload find(Job<?, ?> job, String bucketName, String objectKey, String md5, long length) throws IOException {
+        for (Upload upload : load(job).uploads) {
+            if (upload.bucketName.equals(bucketName) && upload.objectKey.equals(objectKey)
+                    && upload.md5.equals(md5) && upload.length == length) {
+                return upload;
+            }
+        }
+        return null;
+    }
+
+    public static synchronized void put(Job<?, ?> job, Upload upload) throws IOException {
+        AWSEBPendingUploads pending = load(job);
+        pending.uploads.add(upload);
+        pending.save(job);
+    }
+
+    public static synchronized void remove(Job<?, ?> job, String uploadId) throws IOException {
+        AWSEBPendingUploads pending = load(job);
+        for (Iterator<Upload> it = pending.uploads.iterator(); it.hasNext();) {
+            if (it.next().uploadId.equals(uploadId)) {
+                it.remove();
+            }
+        }
+        pending.save(job);
+    }
+
+    /**
+     * Forgets the uploads to the bucket started before {@code cutoff}, for the caller to abort.
+     */
+    public static synchronized List<Upload> removeStartedBefore(Job<?, ?> job, String bucketName, long cutoff) throws IOException {
+        AWSEBPendingUploads pending = load(job);
+        List<Upload> removed = new ArrayList<Upload>();
+        for (Iterator<Upload> it = pending.uploads.iterator(); it.hasNext();) {
+            Upload upload = it.next();
+            if (upload.bucketName.equals(bucketName) && upload.started < cutoff) {
+                it.remove();
+                removed.add(upload);
+            }
+        }
+        if (!removed.isEmpty()) {
+            pending.save(job);
+        }
+        return removed;
+    }
+
+    private void save(Job<?, ?> job) throws IOException {
+        getFile(job).write(this);
+    }
+
+    private static AWSEBPendingUploads load(Job<?, ?> job) throws IOException {
+        XmlFile file = getFile(job);
+        if (file.exists()) {
+            AWSEBPendingUploads pending = (AWSEBPendingUploads) file.read();
+            if (pending != null && pending.uploads != null) {
+                return pending;
+            }
+        }
+        return new AWSEBPendingUploads();
+    }
+
+    private static XmlFile getFile(Job<?, ?> job) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(job.getRootDir(), FILE_NAME));
+    }
+
+}
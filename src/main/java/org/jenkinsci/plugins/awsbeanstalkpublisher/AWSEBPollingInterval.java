@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long to wait before checking on an environment being updated again.
+ *
+ * Polling starts fast and backs off while the status stays the same, and is fast
+ * again after each status change. Once an environment was updated, how long it took
+ * is remembered: the next update of the environment is then polled sparsely until
+ * about that time, and closely after it, when it is most likely to turn Ready.
+ */
+public class AWSEBPollingInterval {
+
+    static final long MIN_INTERVAL_MILLISECONDS = TimeUnit.SECONDS.toMillis(5);
+    static final long MAX_INTERVAL_MILLISECONDS = TimeUnit.SECONDS.toMillis(30);
+    private static final double BACKOFF_FACTOR = 1.5;
+
+    // Update durations of the environments, by environment id.
+    private static final ConcurrentMap<String, Long> DURATIONS = new ConcurrentHashMap<String, Long>();
+
+    private final String environmentId;
+    private final long started;
+    private final Long expectedDuration;
+    private String lastStatus;
+    private long backoff = MIN_INTERVAL_MILLISECONDS;
+
+    public AWSEBPollingInterval(String environmentId) {
+        this(environmentId, System.currentTimeMillis());
+    }
+
+    AWSEBPollingInterval(String environmentId, long started) {
+        this.environmentId = environmentId;
+        this.started = started;
+        this.expectedDuration = DURATIONS.get(environmentId);
+    }
+
+    /**
+     * @param status the status the environment was last seen in
+     * @return milliseconds to wait before the next check
+     */
+    public long next(String status) {
+        return next(status, System.currentTimeMillis());
+    }
+
+    synchronized long next(String status, long now) {
+        if (status == null || !status.equals(lastStatus)) {
+            backoff = MIN_INTERVAL_MILLISECONDS;
+        } else {
+            backoff = Math.min(MAX_INTERVAL_MILLISECONDS, (long) (backoff * BACKOFF_FACTOR));
+        }
+        lastStatus = status;
+
+        if (expectedDuration != null) {
+            long remaining = started + expectedDuration - now;
+            if (remaining > MIN_INTERVAL_MILLISECONDS) {
+                return Math.min(MAX_INTERVAL_MILLISECONDS, remaining);
+            }
+            // Past the expected duration, poll closely again.
+            if (remaining > -MIN_INTERVAL_MILLISECONDS) {
+                backoff = MIN_INTERVAL_MILLISECONDS;
+            }
+        }
+        return backoff;
+    }
+
+    /**
+     * Remembers how long the update took, for the next updates of the environment.
+     */
+    public void finished() {
+        finished(System.currentTimeMillis());
+    }
+
+    void finished(long now) {
+        long duration = now - started;
+        Long previous = DURATIONS.get(environmentId);
+        // Smoothed, so a single unusual update doesn't throw the next ones off.
+        DURATIONS.put(environmentId, previous == null ? duration : (previous + duration) / 2);
+    }
+
+}
@@ -0,0 +1,169 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Uploads the parts of a bundle from its node through URLs presigned on the controller,
+ * so no credentials leave it. Parts without a URL, or whose URL S3 refused, get a
+ * null ETag for the controller to presign again.
+ */
+public class AWSEBPresignedPartUploader extends MasterToSlaveFileCallable<String[]> {
+
+    private static final long serialVersionUID = 1L;
+    private static final long RETRY_BASE_DELAY_MILLISECONDS = TimeUnit.SECONDS.toMillis(1);
+
+    private final URL[] partUrls;
+    private final long partSize;
+    private final int concurrency;
+    private final int maxPartRetries;
+    private final TaskListener listener;
+    // A stalled connection fails the attempt, instead of holding the build.
+    private int timeoutMilliseconds = AWSEBUtils.REQUEST_TIMEOUT_MILLISECONDS;
+
+    public AWSEBPresignedPartUploader(URL[] partUrls, long partSize, int concurrency, int maxPartRetries, TaskListener listener) {
+        this.partUrls = partUrls;
+        this.partSize = partSize;
+        this.concurrency = concurrency;
+        this.maxPartRetries = maxPartRetries;
+        this.listener = listener;
+    }
+
+    void setTimeout(int timeoutMilliseconds) {
+        this.timeoutMilliseconds = timeoutMilliseconds;
+    }
+
+    @Override
+    public String[] invoke(final File bundle, VirtualChannel channel) throws IOException, InterruptedException {
+        final long length = bundle.length();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, partUrls.length)));
+        try {
+            List<Future<String>> parts = new ArrayList<Future<String>>(partUrls.length);
+            for (int i = 0; i < partUrls.length; i++) {
+                if (partUrls[i] == null) {
+                    // Uploaded by an earlier attempt.
+                    parts.add(null);
+                    continue;
+                }
+                final int partNumber = i + 1;
+                final long offset = i * partSize;
+                final long size = Math.min(partSize, length - offset);
+                parts.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return uploadPart(bundle, partNumber, offset, size);
+                    }
+                }));
+            }
+
+            String[] etags = new String[partUrls.length];
+            for (int i = 0; i < etags.length; i++) {
+                if (parts.get(i) == null) {
+                    continue;
+                }
+                try {
+                    etags[i] = parts.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RefusedException) {
+                        listener.getLogger().println(String.format("Part %d: %s, it needs a new URL", i + 1, e.getCause().getMessage()));
+                        continue;
+                    }
+                    throw new IOException("Unable to upload part " + (i + 1), e.getCause());
+                }
+            }
+            return etags;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String uploadPart(File bundle, int partNumber, long offset, long size) throws IOException, InterruptedException {
+        int attempt = 0;
+        while (true) {
+            try {
+                return put(partUrls[partNumber - 1], bundle, offset, size, timeoutMilliseconds);
+            } catch (RefusedException e) {
+                // Retrying an expired URL can't help.
+                throw e;
+            } catch (IOException e) {
+                if (attempt++ >= maxPartRetries) {
+                    throw e;
+                }
+                long delay = RETRY_BASE_DELAY_MILLISECONDS << (attempt - 1);
+                listener.getLogger().println(String.format("Part %d failed (%s), retrying in %d ms (attempt %d/%d)",
+                        partNumber, e.getMessage(), delay, attempt, maxPartRetries));
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private static String put(URL url, File bundle, long offset, long size, int timeoutMilliseconds) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMilliseconds);
+            connection.setReadTimeout(timeoutMilliseconds);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("PUT");
+            connection.setFixedLengthStreamingMode((int) size);
+
+            FileInputStream in = new FileInputStream(bundle);
+            try {
+                // Seeks to the part, skipping would read the whole bundle up to it.
+                in.getChannel().position(offset);
+                OutputStream out = connection.getOutputStream();
+                try {
+                    IOUtils.copyLarge(in, out, 0, size);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                InputStream error = connection.getErrorStream();
+                String message = error == null ? "" : IOUtils.toString(error, "UTF-8");
+                if (status == HttpURLConnection.HTTP_FORBIDDEN) {
+                    throw new RefusedException(String.format("S3 refused the presigned URL: %s", message));
+                }
+                throw new IOException(String.format("S3 returned HTTP %d: %s", status, message));
+            }
+            return connection.getHeaderField("ETag");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * S3 refused the URL of a part, usually because it expired.
+     */
+    private static class RefusedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RefusedException(String message) {
+            super(message);
+        }
+    }
+
+}
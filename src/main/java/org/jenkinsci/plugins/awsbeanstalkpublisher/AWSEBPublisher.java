@@ -70,7 +70,7 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
         if (build.getResult().isWorseThan(Result.SUCCESS)) {
             return false;
         }
-        return AWSEBSetup.perform(build, launcher, listener, getExtensions());
+        return AWSEBSetup.perform(build, launcher, listener, getExtensions(), getDescriptor().getSetupConcurrency());
     }
 
     public BuildStepMonitor getRequiredMonitorService() {
@@ -90,6 +90,16 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
 
         private Set<AWSEBCredentials> credentials;
 
+        /**
+         * Aggregate bandwidth of the uploads sent from the controller, in KB/s, 0 for no limit
+         */
+        private int uploadBandwidthLimit;
+
+        /**
+         * How many application setups of a build are performed at the same time
+         */
+        private Integer setupConcurrency;
+
         @SuppressWarnings("rawtypes")
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
             // Indicates that this builder can be used with all kinds of project types
@@ -117,6 +127,7 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
             } else if (AWSEBCredentials.getCredentials() != null) {
                 credentials = AWSEBCredentials.getCredentials();
             }
+            AWSEBUploadScheduler.get().setBandwidthLimit(uploadBandwidthLimit * 1024L);
         }
 
         @Override
@@ -124,6 +135,9 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
             
             AWSEBCredentials.configureCredentials(req.bindJSONToList(AWSEBCredentials.class, json.get("credentials")));
             credentials = AWSEBCredentials.getCredentials();
+            uploadBandwidthLimit = Math.max(0, json.optInt("uploadBandwidthLimit", 0));
+            AWSEBUploadScheduler.get().setBandwidthLimit(uploadBandwidthLimit * 1024L);
+            setupConcurrency = Math.max(1, json.optInt("setupConcurrency", 1));
             save();
             return super.configure(req, json);
         }
@@ -131,6 +145,14 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
         public Set<AWSEBCredentials> getCredentials() {
             return credentials;
         }
+
+        public int getUploadBandwidthLimit() {
+            return uploadBandwidthLimit;
+        }
+
+        public int getSetupConcurrency() {
+            return setupConcurrency == null ? 1 : setupConcurrency;
+        }
         
     }
 
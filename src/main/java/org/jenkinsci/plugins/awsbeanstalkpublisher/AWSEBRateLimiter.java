@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+
+/**
+ * Paces the calls all builds make to a service in an account and region, so many
+ * concurrent deployments don't get throttled by AWS.
+ *
+ * The rate adapts like TCP congestion control (AIMD): it grows slowly while calls
+ * succeed and is halved whenever AWS throttles one. Every attempt, including the
+ * retries the SDK makes on its own, goes through the limiter.
+ */
+public class AWSEBRateLimiter {
+
+    public enum Service {
+        ELASTIC_BEANSTALK(5, 0.5, 20), S3(100, 5, 1000);
+
+        private final double initialRate;
+        private final double minRate;
+        private final double maxRate;
+
+        Service(double initialRate, double minRate, double maxRate) {
+            this.initialRate = initialRate;
+            this.minRate = minRate;
+            this.maxRate = maxRate;
+        }
+    }
+
+    private static final double DECREASE_FACTOR = 0.5;
+    // Calls that may be made at once after being idle.
+    private static final long BURST_NANOSECONDS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ConcurrentMap<String, AWSEBRateLimiter> LIMITERS = new ConcurrentHashMap<String, AWSEBRateLimiter>();
+
+    private final Service service;
+    private double rate;
+    private long nextFree = System.nanoTime();
+
+    AWSEBRateLimiter(Service service) {
+        this.service = service;
+        this.rate = service.initialRate;
+    }
+
+    /**
+     * @param account identifies the credentials and region the calls are made with
+     */
+    public static AWSEBRateLimiter get(String account, Service service) {
+        String key = account + '|' + service;
+        AWSEBRateLimiter limiter = LIMITERS.get(key);
+        if (limiter == null) {
+            LIMITERS.putIfAbsent(key, new AWSEBRateLimiter(service));
+            limiter = LIMITERS.get(key);
+        }
+        return limiter;
+    }
+
+    /**
+     * Waits until a call may be made.
+     *
+     * @return nanoseconds waited
+     */
+    public long acquire() throws InterruptedException {
+        long now = System.nanoTime();
+        long wait;
+        synchronized (this) {
+            nextFree = Math.max(nextFree, now - BURST_NANOSECONDS);
+            wait = nextFree - now;
+            nextFree += (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+            return wait;
+        }
+        return 0;
+    }
+
+    public synchronized void succeeded() {
+        // About one more call per second, for every second of calls that succeeded.
+        rate = Math.min(service.maxRate, rate + 1 / rate);
+    }
+
+    public synchronized void throttled() {
+        rate = Math.max(service.minRate, rate * DECREASE_FACTOR);
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * The calls of a build: how often they were throttled, and how long they waited for the limiter.
+     */
+    public static class Usage {
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+
+        public long getThrottled() {
+            return throttled.get();
+        }
+
+        public long getWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+        }
+    }
+
+    /**
+     * A handler for the clients of a build, pacing their calls with the limiter.
+     *
+     * @param usage where the calls are accounted, or null
+     */
+    public RequestHandler2 newRequestHandler(final Usage usage) {
+        return new RequestHandler2() {
+            @Override
+            public void beforeAttempt(HandlerBeforeAttemptContext context) {
+                try {
+                    long waited = acquire();
+                    if (usage != null) {
+                        usage.waitNanos.addAndGet(waited);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AbortedException("Interrupted waiting for the rate limit", e);
+                }
+            }
+
+            @Override
+            public void afterAttempt(HandlerAfterAttemptContext context) {
+                Exception exception = context.getException();
+                if (exception == null) {
+                    succeeded();
+                } else if (exception instanceof SdkBaseException && RetryUtils.isThrottlingException((SdkBaseException) exception)) {
+                    throttled();
+                    if (usage != null) {
+                        usage.throttled.incrementAndGet();
+                    }
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.retry.RetryUtils;
+
+/**
+ * Decides whether and when a failed call is retried, by the kind of error: throttling
+ * and an environment busy with another operation are waited out, transient network or
+ * service errors are retried quickly, and errors that would fail again the same way,
+ * like a missing application version, are not retried at all.
+ *
+ * Retries back off exponentially with jitter, so trackers failing together don't retry
+ * together, up to {@link #MAX_ATTEMPTS} attempts and {@link #DEADLINE_MILLISECONDS}.
+ */
+public class AWSEBRetryPolicy {
+
+    public enum ErrorClass {
+        THROTTLING(TimeUnit.SECONDS.toMillis(2), TimeUnit.SECONDS.toMillis(60)),
+        BUSY(TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(60)),
+        TRANSIENT(TimeUnit.SECONDS.toMillis(1), TimeUnit.SECONDS.toMillis(30)),
+        PERMANENT(0, 0);
+
+        private final long baseMillis;
+        private final long capMillis;
+
+        ErrorClass(long baseMillis, long capMillis) {
+            this.baseMillis = baseMillis;
+            this.capMillis = capMillis;
+        }
+    }
+
+    static final int MAX_ATTEMPTS = 5;
+    static final long DEADLINE_MILLISECONDS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Random random;
+    private int failures;
+    private long firstFailure;
+
+    public AWSEBRetryPolicy() {
+        this(new Random());
+    }
+
+    AWSEBRetryPolicy(Random random) {
+        this.random = random;
+    }
+
+    public static ErrorClass classify(Exception e) {
+        // The SdkBaseException checks also know a 429 status, and are false for client errors.
+        if (e instanceof SdkBaseException && RetryUtils.isThrottlingException((SdkBaseException) e)) {
+            return ErrorClass.THROTTLING;
+        }
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException) e;
+            SdkBaseException sdk = ase;
+            if (isBusy(ase)) {
+                return ErrorClass.BUSY;
+            }
+            if (ase.getStatusCode() >= 500 || RetryUtils.isRetryableServiceException(sdk)) {
+                return ErrorClass.TRANSIENT;
+            }
+            return ErrorClass.PERMANENT;
+        }
+        if (e instanceof AmazonClientException && ((AmazonClientException) e).isRetryable()) {
+            return ErrorClass.TRANSIENT;
+        }
+        return ErrorClass.PERMANENT;
+    }
+
+    /**
+     * Whether the environment can't be changed because another operation is in progress.
+     */
+    private static boolean isBusy(AmazonServiceException e) {
+        if ("OperationInProgress".equals(e.getErrorCode()) || "OperationInProgressFailure".equals(e.getErrorCode())) {
+            return true;
+        }
+        String message = e.getErrorMessage();
+        return "InvalidParameterValue".equals(e.getErrorCode()) && message != null && message.contains("invalid state");
+    }
+
+    /**
+     * @return milliseconds to wait before retrying, or -1 to give up
+     */
+    public long onFailure(ErrorClass errorClass) {
+        return onFailure(errorClass, System.currentTimeMillis());
+    }
+
+    long onFailure(ErrorClass errorClass, long now) {
+        if (failures++ == 0) {
+            firstFailure = now;
+        }
+        if (errorClass == ErrorClass.PERMANENT || failures >= MAX_ATTEMPTS || now - firstFailure >= DEADLINE_MILLISECONDS) {
+            return -1;
+        }
+        long ceiling = Math.min(errorClass.capMillis, errorClass.baseMillis << (failures - 1));
+        // Half the backoff for sure, the other half at random.
+        return ceiling / 2 + (long) (random.nextDouble() * (ceiling / 2));
+    }
+
+    public void onSuccess() {
+        failures = 0;
+    }
+
+    /**
+     * @return attempts made since the last success, starting from 1
+     */
+    public int getAttempt() {
+        return failures + 1;
+    }
+
+}
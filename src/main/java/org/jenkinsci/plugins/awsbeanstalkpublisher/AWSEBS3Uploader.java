@@ -1,28 +1,51 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
 import com.amazonaws.services.elasticbeanstalk.model.CreateApplicationVersionRequest;
 import com.amazonaws.services.elasticbeanstalk.model.S3Location;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
-import com.amazonaws.services.s3.model.GetBucketAccelerateConfigurationRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
 import hudson.FilePath;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
-import hudson.util.DirScanner;
-import org.apache.commons.codec.digest.DigestUtils;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Node;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBElasticBeanstalkSetup;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBS3Setup;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class AWSEBS3Uploader {
 
+    /**
+     * User metadata holding the MD5 of the bundle, S3 doesn't keep one for multipart uploads.
+     */
+    public static final String BUNDLE_MD5_METADATA = "awseb-bundle-md5";
+
+    private static final String FRAGMENT_CACHE_DIR = "awseb-fragment-cache";
+    // Existing archives are hashed through mappings of this size.
+    private static final long MD5_MAPPING_SIZE = 64 * 1024 * 1024;
+    // Unfinished multipart uploads older than this are considered abandoned.
+    private static final long STALE_UPLOAD_AGE_MILLISECONDS = TimeUnit.DAYS.toMillis(1);
+
     
     private final String keyPrefix;
     private final String bucketName;
@@ -32,6 +55,20 @@ public class AWSEBS3Uploader {
     private final String rootObject;
     private final boolean isOverwriteExistingFile;
     private final boolean useTransferAcceleration;
+    private final long multipartPartSize;
+    private final int multipartConcurrency;
+    private final int multipartRetries;
+    private final boolean streamUpload;
+    private final boolean uploadFromAgent;
+    private final boolean reproducibleBundle;
+    private final int compressionThreads;
+    private final AWSEBCompressionPolicy compressionPolicy;
+    private final boolean skipUnchangedInput;
+    private final boolean fingerprintContents;
+    private final boolean fragmentCache;
+    private final long fragmentCacheSize;
+    private final boolean resumableUpload;
+    private final AWSEBUploadScheduler.Priority uploadPriority;
     
     private final String applicationName;
     private final String versionLabel;
@@ -42,8 +79,16 @@ public class AWSEBS3Uploader {
     
 
     private String objectKey;
+    private String bundleMd5;
+    private AWSEBPendingUploads.Upload pendingUpload;
+    private AWSEBUploadScheduler.Lease lease;
+    private AWSEBDeploymentReport.Upload report;
+    private Future<ObjectMetadata> existingObject;
+    private String existingObjectKey;
+    private AWSEBRateLimiter.Usage usage;
     private String s3ObjectPath;
     private AmazonS3 s3;
+    private boolean accelerated;
 
     public AWSEBS3Uploader(AbstractBuild<?, ?> build, BuildListener listener, Regions awsRegion,
             AWSEBCredentials credentials, AWSEBS3Setup s3Setup,
@@ -62,6 +107,20 @@ public class AWSEBS3Uploader {
         this.rootObject = AWSEBUtils.getValue(build, listener, s3Setup.getRootObject());
         this.isOverwriteExistingFile = s3Setup.isOverwriteExistingFile();
         this.useTransferAcceleration = s3Setup.isUseTransferAcceleration();
+        this.multipartPartSize = s3Setup.getMultipartPartSize() * AWSEBMultipartUploader.MB;
+        this.multipartConcurrency = s3Setup.getMultipartConcurrency();
+        this.multipartRetries = s3Setup.getMultipartRetries();
+        this.streamUpload = s3Setup.isStreamUpload();
+        this.uploadFromAgent = s3Setup.isUploadFromAgent();
+        this.reproducibleBundle = s3Setup.isReproducibleBundle();
+        this.compressionThreads = s3Setup.getCompressionThreads();
+        this.compressionPolicy = new AWSEBCompressionPolicy(s3Setup.getCompressionLevel(), s3Setup.getStoreExtensions(), s3Setup.isSampleEntropy());
+        this.skipUnchangedInput = s3Setup.isSkipUnchangedInput();
+        this.fingerprintContents = s3Setup.isFingerprintContents();
+        this.fragmentCache = s3Setup.isFragmentCache();
+        this.fragmentCacheSize = s3Setup.getFragmentCacheSize() * AWSEBMultipartUploader.MB;
+        this.resumableUpload = s3Setup.isResumableUpload();
+        this.uploadPriority = s3Setup.getUploadPriority();
     }
 
 
@@ -74,64 +133,524 @@ public class AWSEBS3Uploader {
         if (s3 == null) {
             // Check whether we should use the env region or the bucket one.
             if(this.bucketRegion.isEmpty())
-                s3 = AWSEBUtils.getS3(credentials, awsRegion);
+                s3 = getS3InBucketRegion();
             else
-                s3 = AWSEBUtils.getS3(credentials, Regions.fromName(bucketRegion));
+                s3 = AWSEBUtils.getS3(credentials, Regions.fromName(bucketRegion), usage);
         }
 
         objectKey = AWSEBUtils.formatPath("%s/%s-%s.zip", keyPrefix, applicationName, versionLabel);
 
         s3ObjectPath = "s3://" + AWSEBUtils.formatPath("%s/%s", bucketName, objectKey);
         FilePath rootFileObject = new FilePath(build.getWorkspace(), AWSEBUtils.getValue(build, listener, rootObject));
+
+        if (resumableUpload) {
+            abortStaleUploads();
+        }
+
+        prefetch(awseb);
+
+        report = new AWSEBDeploymentReport.Upload(uploadFromAgent ? "agent" : streamUpload ? "streamed" : "controller");
+
+        String inputFingerprint = null;
+        if (skipUnchangedInput && rootFileObject.isDirectory()) {
+            inputFingerprint = newBundleBuilder().fingerprint(rootFileObject, fingerprintContents);
+            if (reusePreviousUpload(inputFingerprint)) {
+                report.setMode("reused");
+                report.setSkipped(true);
+                addReport();
+                createApplicationVersion(awseb);
+                return;
+            }
+        }
+
+        if (uploadFromAgent) {
+            if (streamUpload) {
+                AWSEBUtils.log(listener, "Uploading from the agent, streaming upload is not used");
+            }
+            uploadFromAgent(rootFileObject);
+        } else if (streamUpload) {
+            openLease();
+            try {
+                streamArchive(rootFileObject);
+            } finally {
+                closeLease();
+            }
+        } else {
+            uploadLocalArchive(rootFileObject);
+        }
+        if (inputFingerprint != null) {
+            AWSEBUploadHistory.put(build.getParent(), getHistoryKey(), new AWSEBUploadHistory.Upload(inputFingerprint, bucketName, objectKey, bundleMd5));
+        }
+        addReport();
+        createApplicationVersion(awseb);
+    }
+
+    /**
+     * Starts the lookups that don't depend on the bundle in the background, so they
+     * run while the bundle is being built: the object currently in S3, the facts about
+     * the bucket and the existing application versions. Whatever fails is looked up
+     * again when needed.
+     */
+    private void prefetch(final AWSElasticBeanstalk awseb) {
+        // Shared with remoting rather than a pool per upload, the lookups are short.
+        ExecutorService executor = Computer.threadPoolForRemoting;
+        if (!streamUpload) {
+            final String key = objectKey;
+            existingObjectKey = key;
+            existingObject = executor.submit(new Callable<ObjectMetadata>() {
+                @Override
+                public ObjectMetadata call() {
+                    return getExistingObject(key);
+                }
+            });
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AWSEBBucketInfo bucketInfo = getBucketInfo();
+                    bucketInfo.getVersioning(s3);
+                    if (useTransferAcceleration) {
+                        bucketInfo.isAccelerated(s3);
+                    }
+                    AWSEBApplicationVersions.get(AWSEBUtils.getAccountKey(credentials, awsRegion), applicationName).find(awseb, versionLabel);
+                } catch (RuntimeException e) {
+                    AWSEBUtils.log(listener, "Unable to look up the bucket and application versions ahead, looking them up when needed: %s", e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a share of the controller bandwidth for the bytes sent from here, only while
+     * they are sent: the bytes of agent uploads never go through the controller.
+     */
+    private void openLease() {
+        lease = AWSEBUploadScheduler.get().register(uploadPriority);
+    }
+
+    private void closeLease() {
+        lease.close();
+        report.setThrottledMillis(lease.getThrottledMillis());
+        if (lease.getThrottledMillis() > 0) {
+            AWSEBUtils.log(listener, "Upload (%s priority) waited %s for the controller bandwidth limit of %d KB/s",
+                    uploadPriority, Util.getTimeSpanString(lease.getThrottledMillis()),
+                    AWSEBUploadScheduler.get().getBandwidthLimit() / 1024);
+        }
+        lease = null;
+    }
+
+    private void addReport() {
+        report.setLocation(s3ObjectPath);
+        report.setMd5(bundleMd5);
+        AWSEBDeploymentReport.get(build).add(report);
+    }
+
+    /**
+     * Points this upload at the bundle of a previous build when it was made from the
+     * same files and is still in S3, so nothing has to be zipped or uploaded.
+     */
+    private boolean reusePreviousUpload(String inputFingerprint) throws IOException {
+        AWSEBUploadHistory.Upload previous = AWSEBUploadHistory.get(build.getParent(), getHistoryKey());
+        if (previous == null || !inputFingerprint.equals(previous.getFingerprint()) || !bucketName.equals(previous.getBucketName())) {
+            return false;
+        }
+        if (!isStillInS3(previous)) {
+            AWSEBUtils.log(listener, "Files are unchanged but %s is gone, rebuilding the bundle", previous.getObjectKey());
+            return false;
+        }
+        objectKey = previous.getObjectKey();
+        bundleMd5 = previous.getMd5();
+        s3ObjectPath = "s3://" + AWSEBUtils.formatPath("%s/%s", bucketName, objectKey);
+        AWSEBUtils.log(listener, "Files are unchanged (fingerprint %s), reusing %s", inputFingerprint, s3ObjectPath);
+        return true;
+    }
+
+    private boolean isStillInS3(AWSEBUploadHistory.Upload upload) {
+        try {
+            ObjectMetadata meta = s3.getObjectMetadata(upload.getBucketName(), upload.getObjectKey());
+            if (upload.getMd5() == null) {
+                return true;
+            }
+            String awsMd5 = meta.getUserMetaDataOf(BUNDLE_MD5_METADATA);
+            return upload.getMd5().equals(awsMd5 == null ? meta.getETag() : awsMd5);
+        } catch (AmazonS3Exception s3e) {
+            if (s3e.getStatusCode() == 403 || s3e.getStatusCode() == 404) {
+                return false;
+            }
+            throw s3e;
+        }
+    }
+
+    private String getHistoryKey() {
+        return String.format("%s/%s|%s|%s", bucketName, keyPrefix, rootObject, applicationName);
+    }
+
+    private void uploadLocalArchive(FilePath rootFileObject) throws Exception {
+        if (!rootFileObject.isDirectory()) {
+            uploadExistingArchive(rootFileObject);
+            return;
+        }
         File localArchive = getLocalFileObject(rootFileObject);
+        // A resumed upload doesn't need this file: the next build zips the same bundle again.
+        try {
+            findPendingUpload(bundleMd5, localArchive.length());
+
+            AWSEBUtils.log(listener, "Uploading file %s as %s", localArchive.getName(), s3ObjectPath);
+
+            boolean uploadFile = shouldUpload(bundleMd5);
+            report.setBundleSize(localArchive.length());
+            report.setSkipped(!uploadFile);
 
-        AWSEBUtils.log(listener, "Uploading file %s as %s", localArchive.getName(), s3ObjectPath);
+            configureTransferAcceleration();
 
-        boolean uploadFile = true;
+            if (uploadFile) {
+                final Stopwatch sw = new Stopwatch();
+                sw.start();
+                openLease();
+                try {
+                    newResumableUploader(bundleMd5, localArchive.length()).upload(localArchive);
+                } finally {
+                    closeLease();
+                }
+                sw.stop();
+                report.setUpload(localArchive.length(), sw.elapsedMillis());
+                AWSEBUtils.log(listener, "Upload took " + sw.toString());
+            }
+        } finally {
+            localArchive.delete();
+        }
+    }
+
+    /**
+     * Uploads a zip produced by the build from where it is, rather than from a copy.
+     * A local file is hashed through a memory mapping and handed to the uploader as it is;
+     * a remote one is hashed on its node and only crosses the channel when it is uploaded.
+     */
+    private void uploadExistingArchive(FilePath archive) throws Exception {
+        AWSEBUtils.log(listener, "Root File Object is a file. We assume its a zip file, which is okay.");
+
+        File localFile = archive.isRemote() ? null : new File(archive.getRemote());
+        final Stopwatch hashing = new Stopwatch();
+        hashing.start();
+        bundleMd5 = localFile == null ? archive.digest() : md5Of(localFile);
+        hashing.stop();
+        long length = localFile == null ? archive.length() : localFile.length();
+        if (localFile != null) {
+            findPendingUpload(bundleMd5, length);
+        }
+
+        AWSEBUtils.log(listener, "Uploading file %s as %s", archive.getName(), s3ObjectPath);
+
+        boolean uploadFile = shouldUpload(bundleMd5);
+        report.setMode("prebuilt");
+        report.setHashMillis(hashing.elapsedMillis());
+        report.setBundleSize(length);
+        report.setSkipped(!uploadFile);
 
+        configureTransferAcceleration();
+
+        if (uploadFile) {
+            final Stopwatch sw = new Stopwatch();
+            sw.start();
+            openLease();
+            try {
+                if (localFile != null) {
+                    newResumableUploader(bundleMd5, length).upload(localFile);
+                } else {
+                    InputStream in = archive.read();
+                    try {
+                        newMultipartUploader(bundleMd5).upload(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                closeLease();
+            }
+            sw.stop();
+            report.setUpload(length, sw.elapsedMillis());
+            AWSEBUtils.log(listener, "Upload took " + sw.toString());
+        }
+    }
+
+    private static String md5Of(File file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
         try {
-            ObjectMetadata meta = s3.getObjectMetadata(bucketName, objectKey);
-            String awsMd5 = meta.getContentMD5();
-            FileInputStream fis = new FileInputStream(localArchive);
-            String ourMd5 = DigestUtils.md5Hex(fis);
-            fis.close();
-            if (ourMd5.equals(awsMd5)) {
-                uploadFile = false || isOverwriteExistingFile;
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            for (long position = 0; position < size; position += MD5_MAPPING_SIZE) {
+                md5.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MD5_MAPPING_SIZE, size - position)));
             }
+        } finally {
+            raf.close();
+        }
+        return Util.toHexString(md5.digest());
+    }
+
+    /**
+     * Builds the bundle and uploads it on the node holding the workspace, so the
+     * controller only coordinates the multipart upload and never sees the bytes.
+     */
+    private void uploadFromAgent(FilePath rootFileObject) throws Exception {
+        AWSEBAgentBundle bundle = rootFileObject.act(new AWSEBAgentBundle.Prepare(newBundleBuilder(), listener));
+        bundleMd5 = bundle.getMd5();
+        report.setBundle(bundle.getStats());
+        report.setBundleSize(bundle.getLength());
+        FilePath bundleFile = bundle.getFilePath(rootFileObject.getChannel());
+        try {
+            findPendingUpload(bundle.getMd5(), bundle.getLength());
+
+            AWSEBUtils.log(listener, "Uploading %s from the agent as %s (md5 %s)", bundleFile.getRemote(), s3ObjectPath, bundle.getMd5());
+
+            configureTransferAcceleration();
+
+            boolean uploadFile = shouldUpload(bundle.getMd5());
+            report.setSkipped(!uploadFile);
+            if (uploadFile) {
+                final Stopwatch sw = new Stopwatch();
+                sw.start();
+                newResumableUploader(bundle.getMd5(), bundle.getLength()).upload(bundleFile, bundle.getLength());
+                sw.stop();
+                report.setUpload(bundle.getLength(), sw.elapsedMillis());
+                AWSEBUtils.log(listener, "Upload took " + sw.toString());
+            }
+        } finally {
+            if (bundle.isTemporary()) {
+                bundleFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Checks the object already in S3 to decide whether the bundle has to be uploaded.
+     * Only a HEAD request is made: the checksum is compared against the one stored in
+     * the object's metadata when it was uploaded, or its ETag for older single part uploads.
+     */
+    private boolean shouldUpload(String ourMd5) throws InterruptedException {
+        ObjectMetadata meta = null;
+        boolean prefetched = false;
+        if (existingObject != null && objectKey.equals(existingObjectKey)) {
+            try {
+                meta = existingObject.get();
+                prefetched = true;
+            } catch (ExecutionException e) {
+                // Looked up again below, failing this time.
+            }
+        }
+        if (!prefetched) {
+            meta = getExistingObject(objectKey);
+        }
+        if (meta == null) {
+            return true;
+        }
+        String awsMd5 = meta.getUserMetaDataOf(BUNDLE_MD5_METADATA);
+        if (awsMd5 == null) {
+            awsMd5 = meta.getETag();
+        }
+        if (ourMd5.equals(awsMd5)) {
+            AWSEBUtils.log(listener, "Bundle is unchanged from %s (md5 %s)", s3ObjectPath, ourMd5);
+            return false || isOverwriteExistingFile;
+        }
+        if (!"Enabled".equals(getBucketInfo().getVersioning(s3))) {
+            AWSEBUtils.log(listener, "Replacing a different bundle at %s, bucket %s isn't versioned so it is lost", s3ObjectPath, bucketName);
+        }
+        return true;
+    }
+
+    /**
+     * @return the metadata of the object at this key, or null if there is none
+     */
+    private ObjectMetadata getExistingObject(String key) {
+        try {
+            return s3.getObjectMetadata(bucketName, key);
         } catch (AmazonS3Exception s3e) {
             if (s3e.getStatusCode() == 403 || s3e.getStatusCode() == 404) {
                 // i.e. 404: NoSuchKey - The specified key does not exist
                 // 403: PermissionDenied is a sneaky way to hide that the file doesn't exist
-                uploadFile = true;
+                return null;
             } else {
                 throw s3e;
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace(listener.getLogger());
+        }
+    }
+
+    /**
+     * Feeds the archive straight into the multipart upload while it is being created,
+     * so nothing is written to disk on the controller. The existing object can't be
+     * compared before uploading, so it is always overwritten.
+     */
+    private void streamArchive(FilePath rootFileObject) throws IOException, InterruptedException {
+        configureTransferAcceleration();
+
+        AWSEBUtils.log(listener, "Streaming %s to %s", rootFileObject.getName(), s3ObjectPath);
+
+        final Stopwatch sw = new Stopwatch();
+        sw.start();
+        AWSEBMultipartUploader.StreamingUpload upload = newMultipartUploader(null).openStream();
+        // The zipper closes its stream even when it fails, which must not complete the upload.
+        CountingOutputStream counter = new CountingOutputStream(new CloseShieldOutputStream(upload));
+        try {
+            writeArchive(rootFileObject, counter);
         } catch (IOException e) {
-            e.printStackTrace(listener.getLogger());
+            upload.abort();
+            throw e;
+        } catch (InterruptedException e) {
+            upload.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            upload.abort();
+            throw e;
         }
+        upload.close();
+        sw.stop();
+        report.setBundleSize(counter.getByteCount());
+        report.setUpload(counter.getByteCount(), sw.elapsedMillis());
+        AWSEBUtils.log(listener, "Upload took " + sw.toString());
+    }
 
+    /**
+     * @param md5 checksum of the bundle, stored with the object so later uploads can be skipped
+     */
+    private AWSEBMultipartUploader newMultipartUploader(String md5) {
+        AWSEBMultipartUploader uploader = new AWSEBMultipartUploader(s3, bucketName, objectKey, listener,
+                multipartPartSize, multipartConcurrency, multipartRetries);
+        uploader.setLease(lease);
+        if (md5 != null) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.addUserMetadata(BUNDLE_MD5_METADATA, md5);
+            uploader.setMetadata(metadata);
+        }
+        return uploader;
+    }
+
+    /**
+     * Looks for an unfinished upload of the same bundle to our key by an earlier build,
+     * for {@link #newResumableUploader} to resume it. An upload to another key, such as
+     * the one of another version, is never completed in its place.
+     */
+    private void findPendingUpload(String md5, long length) throws IOException {
+        if (!resumableUpload) {
+            return;
+        }
+        pendingUpload = AWSEBPendingUploads.find(build.getParent(), bucketName, objectKey, md5, length);
+        if (pendingUpload != null) {
+            AWSEBUtils.log(listener, "An earlier build left an unfinished upload of this bundle to %s", s3ObjectPath);
+        }
+    }
+
+    /**
+     * A multipart uploader whose uploads are recorded with the job until completed,
+     * when resumable uploads are enabled.
+     */
+    private AWSEBMultipartUploader newResumableUploader(final String md5, final long length) {
+        AWSEBMultipartUploader uploader = newMultipartUploader(md5);
+        if (!resumableUpload) {
+            return uploader;
+        }
+        if (pendingUpload != null) {
+            uploader.resume(pendingUpload.getUploadId(), pendingUpload.getPartSize());
+        }
+        final Job<?, ?> job = build.getParent();
+        final String key = objectKey;
+        uploader.setTracker(new AWSEBMultipartUploader.Tracker() {
+            @Override
+            public void started(String uploadId, long partSize) {
+                try {
+                    AWSEBPendingUploads.put(job, new AWSEBPendingUploads.Upload(bucketName, key, uploadId, md5, length, partSize, System.currentTimeMillis()));
+                } catch (IOException e) {
+                    AWSEBUtils.log(listener, "Unable to record upload %s, it won't be resumed: %s", uploadId, e.getMessage());
+                }
+            }
+
+            @Override
+            public void finished(String uploadId) {
+                try {
+                    AWSEBPendingUploads.remove(job, uploadId);
+                } catch (IOException e) {
+                    AWSEBUtils.log(listener, "Unable to forget upload %s: %s", uploadId, e.getMessage());
+                }
+            }
+        });
+        return uploader;
+    }
+
+    /**
+     * Aborts the multipart uploads this job recorded that were left behind long ago by
+     * builds that failed or were killed. Uploads of other jobs and tools are not ours.
+     */
+    private void abortStaleUploads() throws IOException {
+        long cutoff = System.currentTimeMillis() - STALE_UPLOAD_AGE_MILLISECONDS;
+        int aborted = 0;
+        for (AWSEBPendingUploads.Upload upload : AWSEBPendingUploads.removeStartedBefore(build.getParent(), bucketName, cutoff)) {
+            if (AWSEBMultipartUploader.abort(s3, bucketName, upload.getObjectKey(), upload.getUploadId(), listener)) {
+                aborted++;
+            }
+        }
+        if (aborted > 0) {
+            AWSEBUtils.log(listener, "Aborted %d abandoned multipart uploads", aborted);
+        }
+    }
+
+    private AWSEBBundleBuilder newBundleBuilder() {
+        AWSEBBundleBuilder builder = new AWSEBBundleBuilder(includes, excludes, reproducibleBundle, compressionThreads, compressionPolicy);
+        if (fragmentCache) {
+            // The bundle is built on the node holding the workspace, so is the cache.
+            Node node = build.getBuiltOn();
+            FilePath nodeRoot = node == null ? null : node.getRootPath();
+            if (nodeRoot != null) {
+                builder.setFragmentCache(nodeRoot.child(FRAGMENT_CACHE_DIR).getRemote(), fragmentCacheSize, listener);
+            }
+        }
+        return builder;
+    }
+
+    private AWSEBBucketInfo getBucketInfo() {
+        return AWSEBBucketInfo.get(AWSEBUtils.getAccountKey(credentials, awsRegion), bucketName);
+    }
+
+    /**
+     * A client for the region the bucket actually is in, which may not be the one of the
+     * environment: requests sent to another region are redirected, or fail.
+     */
+    private AmazonS3 getS3InBucketRegion() {
+        AmazonS3 client = AWSEBUtils.getS3(credentials, awsRegion, usage);
+        String actualRegion = getBucketInfo().getRegion(client);
+        if (actualRegion == null || actualRegion.equals(awsRegion.getName())) {
+            return client;
+        }
+        try {
+            Regions regions = Regions.fromName(actualRegion);
+            AWSEBUtils.log(listener, "Bucket %s is in %s, not in the environment region %s", bucketName, actualRegion, awsRegion.getName());
+            return AWSEBUtils.getS3(credentials, regions, usage);
+        } catch (IllegalArgumentException e) {
+            return client;
+        }
+    }
+
+    private void configureTransferAcceleration() {
         //see if the bucket is enabled for Acceleration:
         if (useTransferAcceleration) {
-            if (s3.getBucketAccelerateConfiguration(new GetBucketAccelerateConfigurationRequest(bucketName)).isAccelerateEnabled()) {
-                s3.setS3ClientOptions(S3ClientOptions.builder().setAccelerateModeEnabled(true).build());
+            if (Boolean.TRUE.equals(getBucketInfo().isAccelerated(s3))) {
+                if (!accelerated) {
+                    // Clients can't be changed once built, an accelerated one is built instead.
+                    s3 = AWSEBUtils.getS3(credentials, Regions.fromName(s3.getRegionName()), usage, true);
+                    accelerated = true;
+                }
                 AWSEBUtils.log(listener, "Bucket %s configured for Transfer Acceleration!", bucketName);
             }
             else {
                 AWSEBUtils.log(listener, "Bucket %s does not support Transfer Acceleration", bucketName);
             }
         }
+    }
 
-        if (uploadFile) {
-            final Stopwatch sw = new Stopwatch();
-            sw.start();
-            s3.putObject(bucketName, objectKey, localArchive);
-            sw.stop();
-            AWSEBUtils.log(listener, "Upload took " + sw.toString());
-        }
-        localArchive.delete();
-        createApplicationVersion(awseb);
+    /**
+     * @param usage where the S3 calls of the build are accounted
+     */
+    public void setUsage(AWSEBRateLimiter.Usage usage) {
+        this.usage = usage;
     }
 
     @VisibleForTesting
@@ -142,27 +661,87 @@ public class AWSEBS3Uploader {
     private File getLocalFileObject(FilePath rootFileObject) throws Exception {
         File resultFile = File.createTempFile("awseb-", ".zip");
 
+        // Hash while writing, so the bundle doesn't have to be read again.
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        boolean written = false;
+        try {
+            OutputStream out = new DigestOutputStream(new FileOutputStream(resultFile), md5);
+            try {
+                writeArchive(rootFileObject, out);
+            } finally {
+                out.close();
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                resultFile.delete();
+            }
+        }
+        bundleMd5 = Util.toHexString(md5.digest());
+
+        return resultFile;
+    }
+
+    private void writeArchive(FilePath rootFileObject, OutputStream out) throws IOException, InterruptedException {
         if (!rootFileObject.isDirectory()) {
             AWSEBUtils.log(listener, "Root File Object is a file. We assume its a zip file, which is okay.");
 
-            rootFileObject.copyTo(new FileOutputStream(resultFile));
+            rootFileObject.copyTo(out);
         } else {
-            AWSEBUtils.log(listener, "Zipping contents of Root File Object (%s) into tmp file %s (includes=%s, excludes=%s)", rootFileObject.getName(), resultFile.getName(), includes, excludes);
+            AWSEBUtils.log(listener, "Zipping contents of Root File Object (%s) (includes=%s, excludes=%s, reproducible=%s)", rootFileObject.getName(), includes, excludes, reproducibleBundle);
 
-            rootFileObject.zip(new FileOutputStream(resultFile), new DirScanner.Glob(includes, excludes));
+            AWSEBBundleStats stats = newBundleBuilder().build(rootFileObject, out);
+            report.setBundle(stats);
+            AWSEBUtils.log(listener, "Zipped %d files (%d KB, %.0f%% of their size) in %s", stats.getEntryCount(),
+                    stats.getCompressedSize() / 1024, stats.getRatio() * 100, Util.getTimeSpanString(stats.getScanMillis() + stats.getZipMillis()));
         }
-
-        return resultFile;
     }
 
-    private void createApplicationVersion(AWSElasticBeanstalk awseb) {
+    /**
+     * Creates the application version, unless it exists already for the same bundle as
+     * when a build is re-run. A version with this label pointing at another bundle can't
+     * be deployed as this build's, which fails the build before touching any environment.
+     */
+    private void createApplicationVersion(AWSElasticBeanstalk awseb) throws IOException {
+        S3Location location = new S3Location(bucketName, objectKey);
+        AWSEBApplicationVersions versions = AWSEBApplicationVersions.get(AWSEBUtils.getAccountKey(credentials, awsRegion), applicationName);
+        if (isExistingVersion(versions.find(awseb, versionLabel), location)) {
+            return;
+        }
+
         AWSEBUtils.log(listener, "Creating application version %s for application %s for path %s", versionLabel, applicationName, s3ObjectPath);
 
         CreateApplicationVersionRequest cavRequest = new CreateApplicationVersionRequest().withApplicationName(applicationName).withAutoCreateApplication(true)
-                .withSourceBundle(new S3Location(bucketName, objectKey)).withVersionLabel(versionLabel);
+                .withSourceBundle(location).withVersionLabel(versionLabel);
 
-        awseb.createApplicationVersion(cavRequest);
+        try {
+            awseb.createApplicationVersion(cavRequest);
+        } catch (AmazonServiceException e) {
+            // Created by another build since the versions were listed. Elastic Beanstalk has
+            // no error code of its own for it, so the versions tell whether it exists.
+            if (!"InvalidParameterValue".equals(e.getErrorCode())) {
+                throw e;
+            }
+            if (isExistingVersion(versions.refresh(awseb, versionLabel), location)) {
+                return;
+            }
+            throw e;
+        }
+        versions.put(versionLabel, location);
     }
 
+    private boolean isExistingVersion(S3Location existing, S3Location location) throws IOException {
+        if (existing == null) {
+            return false;
+        }
+        if (!existing.equals(location)) {
+            throw new IOException(String.format("Application version %s of %s already exists for s3://%s/%s, not for %s",
+                    versionLabel, applicationName, existing.getS3Bucket(), existing.getS3Key(), s3ObjectPath));
+        }
+        AWSEBUtils.log(listener, "Application version %s already exists for %s, reusing it", versionLabel, s3ObjectPath);
+        return true;
+    }
+
+
 
 }
@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import jenkins.model.Jenkins;
+
+/**
+ * The last bundle each S3 setup of a job uploaded and the fingerprint of its inputs,
+ * kept in the job directory.
+ */
+public class AWSEBUploadHistory {
+
+    private static final String FILE_NAME = "awseb-uploads.xml";
+
+    private Map<String, Upload> uploads = new HashMap<String, Upload>();
+
+    public static class Upload {
+        private final String fingerprint;
+        private final String bucketName;
+        private final String objectKey;
+        private final String md5;
+
+        public Upload(String fingerprint, String bucketName, String objectKey, String md5) {
+            this.fingerprint = fingerprint;
+            this.bucketName = bucketName;
+            this.objectKey = objectKey;
+            this.md5 = md5;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public String getBucketName() {
+            return bucketName;
+        }
+
+        public String getObjectKey() {
+            return objectKey;
+        }
+
+        /**
+         * Checksum of the uploaded bundle, null when it was streamed.
+         */
+        public String getMd5() {
+            return md5;
+        }
+    }
+
+    public static synchronized Upload get(Job<?, ?> job, String key) throws IOException {
+        return load(job).uploads.get(key);
+    }
+
+    public static synchronized void put(Job<?, ?> job, String key, Upload upload) throws IOException {
+        AWSEBUploadHistory history = load(job);
+        history.uploads.put(key, upload);
+        getFile(job).write(history);
+    }
+
+    private static AWSEBUploadHistory load(Job<?, ?> job) throws IOException {
+        XmlFile file = getFile(job);
+        if (file.exists()) {
+            AWSEBUploadHistory history = (AWSEBUploadHistory) file.read();
+            if (history != null && history.uploads != null) {
+                return history;
+            }
+        }
+        return new AWSEBUploadHistory();
+    }
+
+    private static XmlFile getFile(Job<?, ?> job) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(job.getRootDir(), FILE_NAME));
+    }
+
+}
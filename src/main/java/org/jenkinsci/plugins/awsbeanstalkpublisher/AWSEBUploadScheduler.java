@@ -0,0 +1,160 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.event.ProgressEvent;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.event.SyncProgressListener;
+
+/**
+ * Shares the controller's upload bandwidth between the uploads running at the same
+ * time, in proportion to the weight of their priority.
+ */
+public class AWSEBUploadScheduler {
+
+    public enum Priority {
+        HIGH(4), NORMAL(2), LOW(1);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+    }
+
+    // Bytes an upload may send at once after being idle, so pacing doesn't slow down short bursts.
+    private static final long MAX_BURST_BYTES = 256 * 1024;
+
+    private static final AWSEBUploadScheduler INSTANCE = new AWSEBUploadScheduler();
+
+    private final Set<Lease> leases = new HashSet<Lease>();
+    private long bytesPerSecond;
+    private int totalWeight;
+
+    public static AWSEBUploadScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param bytesPerSecond aggregate limit of all uploads, 0 for none
+     */
+    public synchronized void setBandwidthLimit(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    public synchronized long getBandwidthLimit() {
+        return bytesPerSecond;
+    }
+
+    public synchronized Lease register(Priority priority) {
+        Lease lease = new Lease(priority);
+        leases.add(lease);
+        totalWeight += priority.getWeight();
+        return lease;
+    }
+
+    private synchronized void unregister(Lease lease) {
+        if (leases.remove(lease)) {
+            totalWeight -= lease.priority.getWeight();
+        }
+    }
+
+    private synchronized long shareOf(Priority priority) {
+        if (bytesPerSecond == 0 || totalWeight == 0) {
+            return 0;
+        }
+        return Math.max(1, bytesPerSecond * priority.getWeight() / totalWeight);
+    }
+
+    /**
+     * Paced by a token bucket refilled at the current share.
+     */
+    public class Lease {
+        private final Priority priority;
+        private long availableBytes = MAX_BURST_BYTES;
+        private long lastRefill = System.nanoTime();
+        private long throttledNanos;
+        private long bytes;
+
+        Lease(Priority priority) {
+            this.priority = priority;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public void acquire(long count) throws InterruptedException {
+            long share = shareOf(priority);
+            long waitNanos = 0;
+            synchronized (this) {
+                bytes += count;
+                if (share == 0) {
+                    return;
+                }
+                refill(share);
+                // The bytes are taken right away, so parts sent at the same time queue up behind each other.
+                availableBytes -= count;
+                if (availableBytes < 0) {
+                    waitNanos = TimeUnit.SECONDS.toNanos(1) * -availableBytes / share;
+                    throttledNanos += waitNanos;
+                }
+            }
+            // Not holding the lease, its other parts may take their bytes meanwhile.
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+
+        long getShare() {
+            return shareOf(priority);
+        }
+
+        private void refill(long share) {
+            long now = System.nanoTime();
+            availableBytes = Math.min(MAX_BURST_BYTES, availableBytes + (now - lastRefill) * share / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+        }
+
+        /**
+         * Called as the request body is read, so waiting blocks the upload.
+         */
+        public ProgressListener newProgressListener() {
+            return new SyncProgressListener() {
+                @Override
+                public void progressChanged(ProgressEvent event) {
+                    if (event.getEventType() != ProgressEventType.REQUEST_BYTE_TRANSFER_EVENT) {
+                        return;
+                    }
+                    try {
+                        acquire(event.getBytesTransferred());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new AbortedException("Upload interrupted", e);
+                    }
+                }
+            };
+        }
+
+        public synchronized long getThrottledMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(throttledNanos);
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        public void close() {
+            unregister(this);
+        }
+    }
+
+}
@@ -2,37 +2,70 @@ package org.jenkinsci.plugins.awsbeanstalkpublisher;
 
 import hudson.Util;
 import hudson.model.BuildListener;
+import hudson.model.TaskListener;
 import hudson.model.AbstractBuild;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
-import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClient;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClientBuilder;
 import com.amazonaws.services.elasticbeanstalk.model.ApplicationDescription;
 import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationsResult;
 import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
 import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsResult;
 import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 
 public class AWSEBUtils {
 
     private final static Pattern ENV_NAME_REGEX = Pattern.compile("([a-zA-Z0-9][-a-zA-Z0-9]{2,21}[a-zA-Z0-9]|\\$\\{.*\\})");
 
     private static final Logger logger = Logger.getLogger(AWSEBUtils.class.getName());
+
+    // Calls that don't transfer a bundle are small, unlike uploads to S3 which may take any time.
+    static final int REQUEST_TIMEOUT_MILLISECONDS = (int) TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * Times out the S3 calls that don't transfer a bundle, like listing the parts of an
+     * upload or looking up the bucket, as the client can't time out only some calls.
+     */
+    static final RequestHandler2 S3_REQUEST_TIMEOUT = new RequestHandler2() {
+        @Override
+        public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+            if (request.getSdkRequestTimeout() == null && !isTransfer(request)) {
+                request.setSdkRequestTimeout(REQUEST_TIMEOUT_MILLISECONDS);
+            }
+            return request;
+        }
+    };
+
+    /**
+     * Completing an upload counts as one: S3 may take minutes to assemble a large upload.
+     */
+    private static boolean isTransfer(AmazonWebServiceRequest request) {
+        return request instanceof PutObjectRequest || request instanceof UploadPartRequest
+                || request instanceof GetObjectRequest || request instanceof CompleteMultipartUploadRequest;
+    }
     
     public static String formatPath(String mask, Object... args) {
         return strip(String.format(mask, args).replaceAll("/{2,}", ""));
@@ -49,16 +82,44 @@ public class AWSEBUtils {
     }
     
     public static AmazonS3 getS3(AWSEBCredentials credentials, Regions awsRegion) {
+        return getS3(credentials, awsRegion, null);
+    }
+
+    /**
+     * @param usage where the calls of the client are accounted, or null
+     */
+    public static AmazonS3 getS3(AWSEBCredentials credentials, Regions awsRegion, AWSEBRateLimiter.Usage usage) {
+        return getS3(credentials, awsRegion, usage, false);
+    }
+
+    /**
+     * @param usage where the calls of the client are accounted, or null
+     * @param accelerated whether to go through Transfer Acceleration, which the bucket must have enabled
+     */
+    public static AmazonS3 getS3(AWSEBCredentials credentials, Regions awsRegion, AWSEBRateLimiter.Usage usage, boolean accelerated) {
         AWSCredentialsProvider provider = null;
         if (credentials != null) {
             provider = credentials.getAwsCredentials();
         }
         Region region = Region.getRegion(awsRegion);
 
-        AmazonS3 s3 = region.createClient(AmazonS3Client.class, provider, AWSEBUtils.getClientConfig());
-        return s3;
+        return AmazonS3ClientBuilder.standard()
+                .withCredentials(provider)
+                .withRegion(awsRegion)
+                .withClientConfiguration(getClientConfig())
+                .withAccelerateModeEnabled(accelerated)
+                .withRequestHandlers(AWSEBRateLimiter.get(getAccount(provider, region), AWSEBRateLimiter.Service.S3).newRequestHandler(usage),
+                        S3_REQUEST_TIMEOUT)
+                .build();
     }
     
+    /**
+     * Identifies the account and region the credentials give access to, for caching what is found there.
+     */
+    public static String getAccountKey(AWSEBCredentials credentials, Regions region) {
+        return String.format("%s|%s", credentials == null ? "" : credentials.toString(), region.getName());
+    }
+
     public static String getValue(AbstractBuild<?, ?> build, BuildListener listener, String value) {
         return strip(replaceMacros(build, listener, value));
     }
@@ -136,8 +197,34 @@ public class AWSEBUtils {
     }
     
     public static AWSElasticBeanstalk getElasticBeanstalk(AWSCredentialsProvider credentials, Region region) {
-        AWSElasticBeanstalk awseb = region.createClient(AWSElasticBeanstalkClient.class, credentials, getClientConfig());
-        return awseb;
+        return getElasticBeanstalk(credentials, region, null);
+    }
+
+    /**
+     * @param usage where the calls of the client are accounted, or null
+     */
+    public static AWSElasticBeanstalk getElasticBeanstalk(AWSCredentialsProvider credentials, Region region, AWSEBRateLimiter.Usage usage) {
+        return AWSElasticBeanstalkClientBuilder.standard()
+                .withCredentials(credentials)
+                .withRegion(region.getName())
+                .withClientConfiguration(getClientConfig().withRequestTimeout(REQUEST_TIMEOUT_MILLISECONDS))
+                .withRequestHandlers(AWSEBRateLimiter.get(getAccount(credentials, region), AWSEBRateLimiter.Service.ELASTIC_BEANSTALK).newRequestHandler(usage))
+                .build();
+    }
+
+    /**
+     * Identifies the account of the credentials and the region, for rate limiting the calls made there.
+     */
+    private static String getAccount(AWSCredentialsProvider credentials, Region region) {
+        String account = "";
+        if (credentials != null) {
+            try {
+                account = credentials.getCredentials().getAWSAccessKeyId();
+            } catch (RuntimeException e) {
+                logger.log(Level.FINE, "Unable to resolve the credentials", e);
+            }
+        }
+        return account + "|" + region.getName();
     }
     
     public static ClientConfiguration getClientConfig() {
@@ -147,7 +234,7 @@ public class AWSEBUtils {
     }
     
 
-    public static void log(BuildListener listener, String mask, Object... args) {
+    public static void log(TaskListener listener, String mask, Object... args) {
         listener.getLogger().println(String.format(mask, args));
     }
 
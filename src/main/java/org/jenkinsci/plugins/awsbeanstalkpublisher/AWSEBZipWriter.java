@@ -0,0 +1,279 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Zip writer taking entries compressed elsewhere, in order. No Zip64: bundles are
+ * limited to 4 GB and 65535 entries, like the Ant zip writer used by Jenkins.
+ */
+public class AWSEBZipWriter {
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int VERSION_NEEDED = 20;
+    // Unix, zip spec 2.0: lets unzip restore the permissions in the external attributes.
+    private static final int VERSION_MADE_BY = (3 << 8) | VERSION_NEEDED;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static class Entry {
+        private final String name;
+        private final long time;
+        private final int unixMode;
+        private final int method;
+        private long crc;
+        private long compressedSize;
+        private long size;
+
+        private int flags;
+        private long offset;
+
+        public Entry(String name, long time, int unixMode, int method, long crc, long compressedSize, long size) {
+            this.name = name;
+            this.time = time;
+            this.unixMode = unixMode;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private final CountingOutputStream out;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    public AWSEBZipWriter(OutputStream out) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    }
+
+    /**
+     * The data is written as is, compressed or not.
+     */
+    public void write(Entry entry, InputStream data) throws IOException {
+        writeLocalHeader(entry, FLAG_UTF8);
+        // Fails before copying the data rather than after.
+        checkSize(out.count + entry.compressedSize, entry.name);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            int read = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Unexpected end of data for " + entry.name);
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Sizes and CRC follow the data, so nothing is held in memory.
+     */
+    public void writeDeflated(Entry entry, InputStream data, int level) throws IOException {
+        writeLocalHeader(entry, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR);
+        long start = out.count;
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            long size = 0;
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                deflated.write(buffer, 0, read);
+                size += read;
+            }
+            deflated.finish();
+            entry.crc = crc.getValue();
+            entry.size = size;
+            entry.compressedSize = out.count - start;
+        } finally {
+            deflater.end();
+        }
+        checkSize(entry.size, entry.name);
+        checkSize(out.count, entry.name);
+        writeInt(DATA_DESCRIPTOR_SIGNATURE);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+    }
+
+    public void close() throws IOException {
+        long start = out.count;
+        for (Entry entry : entries) {
+            byte[] name = entry.name.getBytes("UTF-8");
+            writeInt(CENTRAL_HEADER_SIGNATURE);
+            writeShort(VERSION_MADE_BY);
+            writeShort(VERSION_NEEDED);
+            writeShort(entry.flags);
+            writeShort(entry.method);
+            writeInt(dosTime(entry.time));
+            writeInt(entry.crc);
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+            writeShort(name.length);
+            writeShort(0); // extra field length
+            writeShort(0); // comment length
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            writeInt(entry.unixMode == -1 ? 0 : ((long) entry.unixMode << 16) & MAX_SIZE);
+            writeInt(entry.offset);
+            out.write(name);
+        }
+        long size = out.count - start;
+        checkSize(out.count, null);
+
+        writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(0);
+        writeShort(0);
+        writeShort(entries.size());
+        writeShort(entries.size());
+        writeInt(size);
+        writeInt(start);
+        writeShort(0);
+        out.close();
+    }
+
+    private void writeLocalHeader(Entry entry, int flags) throws IOException {
+        if (entries.size() >= MAX_ENTRIES) {
+            throw new IOException(String.format("Bundle has more than %d entries at %s, which needs Zip64 (not supported)",
+                    MAX_ENTRIES, entry.name));
+        }
+        checkSize(out.count, entry.name);
+        checkSize(entry.compressedSize, entry.name);
+        checkSize(entry.size, entry.name);
+        entry.flags = flags;
+        entry.offset = out.count;
+        entries.add(entry);
+
+        boolean descriptor = (flags & FLAG_DATA_DESCRIPTOR) != 0;
+        byte[] name = entry.name.getBytes("UTF-8");
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(VERSION_NEEDED);
+        writeShort(flags);
+        writeShort(entry.method);
+        writeInt(dosTime(entry.time));
+        writeInt(descriptor ? 0 : entry.crc);
+        writeInt(descriptor ? 0 : entry.compressedSize);
+        writeInt(descriptor ? 0 : entry.size);
+        writeShort(name.length);
+        writeShort(0); // extra field length
+        out.write(name);
+    }
+
+    /**
+     * @param name the entry being written, or null for the central directory
+     */
+    private static void checkSize(long size, String name) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException(String.format("Bundle is larger than 4 GB%s, which needs Zip64 (not supported)",
+                    name == null ? "" : " at " + name));
+        }
+    }
+
+    static long dosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25)
+                | ((long) (calendar.get(Calendar.MONTH) + 1) << 21)
+                | ((long) calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | ((long) calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | ((long) calendar.get(Calendar.MINUTE) << 5)
+                | ((long) calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    /**
+     * @param crc updated with the uncompressed data
+     */
+    public static byte[] deflate(byte[] data, int level, CRC32 crc) {
+        crc.update(data);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(data.length / 2, 64));
+        Deflater deflater = new Deflater(level, true);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE);
+            deflated.write(data);
+            deflated.finish();
+        } catch (IOException e) {
+            // Can't happen, it is all in memory.
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
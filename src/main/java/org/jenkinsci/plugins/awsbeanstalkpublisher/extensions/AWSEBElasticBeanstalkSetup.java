@@ -37,6 +37,10 @@ public class AWSEBElasticBeanstalkSetup extends AWSEBSetup {
     private String applicationName;
     private String versionLabelFormat;
     private Boolean failOnError;
+    private Integer deployOrder;
+    private String waveSize;
+    private Integer environmentTimeout;
+    private Integer deploymentTimeout;
 
     @Deprecated
     private transient List<String> environments;
@@ -58,7 +62,11 @@ public class AWSEBElasticBeanstalkSetup extends AWSEBSetup {
             String versionLabelFormat, 
             Boolean failOnError,
             List<AWSEBSetup> extensions,
-            List<AWSEBSetup> envLookup) {
+            List<AWSEBSetup> envLookup,
+            Integer deployOrder,
+            String waveSize,
+            Integer environmentTimeout,
+            Integer deploymentTimeout) {
         
         this.awsRegion = awsRegion;
         this.awsRegionText = awsRegionText;
@@ -74,6 +82,15 @@ public class AWSEBElasticBeanstalkSetup extends AWSEBSetup {
         if (this.envLookup.size() == 0){
             this.envLookup.add(new ByName(""));
         }
+        this.deployOrder = deployOrder;
+        this.waveSize = waveSize;
+        this.environmentTimeout = environmentTimeout;
+        this.deploymentTimeout = deploymentTimeout;
+    }
+
+    public AWSEBElasticBeanstalkSetup(Regions awsRegion, String awsRegionText, String credentialsString, String credentialsText,
+            String applicationName, String versionLabelFormat, Boolean failOnError, List<AWSEBSetup> extensions, List<AWSEBSetup> envLookup) {
+        this(awsRegion, awsRegionText, credentialsString, credentialsText, applicationName, versionLabelFormat, failOnError, extensions, envLookup, null, null, null, null);
     }
 
     public DescribableList<AWSEBSetup, AWSEBSetupDescriptor> getExtensions() {
@@ -143,6 +160,32 @@ public class AWSEBElasticBeanstalkSetup extends AWSEBSetup {
         return failOnError == null ? false : failOnError;
     }
 
+    @Override
+    public int getDeployOrder() {
+        return deployOrder == null ? 0 : deployOrder;
+    }
+
+    /**
+     * @return how many environments to update at a time, as a count or a percentage like 25%, blank for all at once
+     */
+    public String getWaveSize() {
+        return waveSize == null ? "" : waveSize;
+    }
+
+    /**
+     * @return minutes an environment may take to update, 0 for no limit
+     */
+    public int getEnvironmentTimeout() {
+        return environmentTimeout == null ? 60 : environmentTimeout;
+    }
+
+    /**
+     * @return minutes the whole deployment, uploads and all the environments, may take, 0 for no limit
+     */
+    public int getDeploymentTimeout() {
+        return deploymentTimeout == null ? 0 : deploymentTimeout;
+    }
+
     public String getCredentialsString() {
         return credentialsString;
     }
@@ -217,6 +260,19 @@ public class AWSEBElasticBeanstalkSetup extends AWSEBSetup {
 
         }
         
+        public FormValidation doCheckWaveSize(@QueryParameter String waveSize) {
+            if (waveSize.contains("$")) {
+                // Known once the build runs.
+                return FormValidation.ok();
+            }
+            try {
+                AWSEBEnvironmentUpdater.getWaveSize(waveSize, 1);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
         public FormValidation doLookupAvailableCredentials() {
             List<String> creds = new ArrayList<String>(10);
             for (AWSEBCredentials next : AWSEBCredentials.getCredentials()) {
@@ -1,17 +1,24 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
 
 import hudson.Extension;
+import hudson.util.ListBoxModel;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBCompressionPolicy;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBMultipartUploader;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBUploadScheduler;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 public class AWSEBS3Setup extends AWSEBSetup {
 
     @Extension
     public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
 
+    public static final int DEFAULT_FRAGMENT_CACHE_SIZE = 1024;
+
     @DataBoundConstructor
     public AWSEBS3Setup(String bucketName, String bucketRegion, String keyPrefix, String rootObject, String includes, String excludes, Boolean overwriteExistingFile, Boolean useTransferAcceleration) {
         this.bucketName = bucketName;
@@ -81,6 +88,207 @@ public class AWSEBS3Setup extends AWSEBSetup {
         return useTransferAcceleration == null ? false : useTransferAcceleration;
     }
 
+    /**
+     * Multipart part size in MB, 0 to pick one from the bundle size
+     */
+    private Integer multipartPartSize;
+
+    public int getMultipartPartSize() {
+        return multipartPartSize == null || multipartPartSize < 0 ? 0 : multipartPartSize;
+    }
+
+    @DataBoundSetter
+    public void setMultipartPartSize(Integer multipartPartSize) {
+        this.multipartPartSize = multipartPartSize;
+    }
+
+    private Integer multipartConcurrency;
+
+    public int getMultipartConcurrency() {
+        return multipartConcurrency == null || multipartConcurrency <= 0 ? AWSEBMultipartUploader.DEFAULT_CONCURRENCY : multipartConcurrency;
+    }
+
+    @DataBoundSetter
+    public void setMultipartConcurrency(Integer multipartConcurrency) {
+        this.multipartConcurrency = multipartConcurrency;
+    }
+
+    private Integer multipartRetries;
+
+    public int getMultipartRetries() {
+        return multipartRetries == null || multipartRetries < 0 ? AWSEBMultipartUploader.DEFAULT_PART_RETRIES : multipartRetries;
+    }
+
+    @DataBoundSetter
+    public void setMultipartRetries(Integer multipartRetries) {
+        this.multipartRetries = multipartRetries;
+    }
+
+    private Boolean streamUpload;
+
+    public boolean isStreamUpload() {
+        return streamUpload == null ? false : streamUpload;
+    }
+
+    @DataBoundSetter
+    public void setStreamUpload(Boolean streamUpload) {
+        this.streamUpload = streamUpload;
+    }
+
+    private Boolean uploadFromAgent;
+
+    public boolean isUploadFromAgent() {
+        return uploadFromAgent == null ? false : uploadFromAgent;
+    }
+
+    @DataBoundSetter
+    public void setUploadFromAgent(Boolean uploadFromAgent) {
+        this.uploadFromAgent = uploadFromAgent;
+    }
+
+    private Boolean reproducibleBundle;
+
+    public boolean isReproducibleBundle() {
+        return reproducibleBundle == null ? false : reproducibleBundle;
+    }
+
+    @DataBoundSetter
+    public void setReproducibleBundle(Boolean reproducibleBundle) {
+        this.reproducibleBundle = reproducibleBundle;
+    }
+
+    /**
+     * Threads compressing the bundle, 0 for one per core
+     */
+    private Integer compressionThreads;
+
+    public int getCompressionThreads() {
+        return compressionThreads == null || compressionThreads < 0 ? 1 : compressionThreads;
+    }
+
+    @DataBoundSetter
+    public void setCompressionThreads(Integer compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Deflate level, 0 to store every file
+     */
+    private Integer compressionLevel;
+
+    public int getCompressionLevel() {
+        return compressionLevel == null || compressionLevel < 0 || compressionLevel > 9 ? AWSEBCompressionPolicy.DEFAULT_LEVEL : compressionLevel;
+    }
+
+    @DataBoundSetter
+    public void setCompressionLevel(Integer compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Extensions of the files stored without compression
+     */
+    private String storeExtensions;
+
+    public String getStoreExtensions() {
+        return storeExtensions == null ? AWSEBCompressionPolicy.DEFAULT_STORE_EXTENSIONS : storeExtensions;
+    }
+
+    @DataBoundSetter
+    public void setStoreExtensions(String storeExtensions) {
+        this.storeExtensions = storeExtensions;
+    }
+
+    private Boolean sampleEntropy;
+
+    public boolean isSampleEntropy() {
+        return sampleEntropy == null ? false : sampleEntropy;
+    }
+
+    @DataBoundSetter
+    public void setSampleEntropy(Boolean sampleEntropy) {
+        this.sampleEntropy = sampleEntropy;
+    }
+
+    private Boolean skipUnchangedInput;
+
+    public boolean isSkipUnchangedInput() {
+        return skipUnchangedInput == null ? false : skipUnchangedInput;
+    }
+
+    @DataBoundSetter
+    public void setSkipUnchangedInput(Boolean skipUnchangedInput) {
+        this.skipUnchangedInput = skipUnchangedInput;
+    }
+
+    private Boolean fingerprintContents;
+
+    public boolean isFingerprintContents() {
+        return fingerprintContents == null ? false : fingerprintContents;
+    }
+
+    @DataBoundSetter
+    public void setFingerprintContents(Boolean fingerprintContents) {
+        this.fingerprintContents = fingerprintContents;
+    }
+
+    private Boolean fragmentCache;
+
+    public boolean isFragmentCache() {
+        return fragmentCache == null ? false : fragmentCache;
+    }
+
+    @DataBoundSetter
+    public void setFragmentCache(Boolean fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * Fragment cache size in MB
+     */
+    private Integer fragmentCacheSize;
+
+    public int getFragmentCacheSize() {
+        return fragmentCacheSize == null || fragmentCacheSize <= 0 ? DEFAULT_FRAGMENT_CACHE_SIZE : fragmentCacheSize;
+    }
+
+    @DataBoundSetter
+    public void setFragmentCacheSize(Integer fragmentCacheSize) {
+        this.fragmentCacheSize = fragmentCacheSize;
+    }
+
+    private Boolean resumableUpload;
+
+    public boolean isResumableUpload() {
+        return resumableUpload == null ? false : resumableUpload;
+    }
+
+    @DataBoundSetter
+    public void setResumableUpload(Boolean resumableUpload) {
+        this.resumableUpload = resumableUpload;
+    }
+
+    /**
+     * Share of the controller upload bandwidth, see {@link AWSEBUploadScheduler}
+     */
+    private String uploadPriority;
+
+    public AWSEBUploadScheduler.Priority getUploadPriority() {
+        if (uploadPriority != null) {
+            for (AWSEBUploadScheduler.Priority priority : AWSEBUploadScheduler.Priority.values()) {
+                if (priority.name().equals(uploadPriority)) {
+                    return priority;
+                }
+            }
+        }
+        return AWSEBUploadScheduler.Priority.NORMAL;
+    }
+
+    @DataBoundSetter
+    public void setUploadPriority(String uploadPriority) {
+        this.uploadPriority = uploadPriority;
+    }
+
     // Overridden for better type safety.
     // If your plugin doesn't really define any property on Descriptor,
     // you don't have to do this.
@@ -98,6 +306,18 @@ public class AWSEBS3Setup extends AWSEBSetup {
             return "Deploy to S3";
         }
 
+        public ListBoxModel doFillUploadPriorityItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (AWSEBUploadScheduler.Priority priority : AWSEBUploadScheduler.Priority.values()) {
+                items.add(priority.name());
+            }
+            return items;
+        }
+
+        public String getDefaultStoreExtensions() {
+            return AWSEBCompressionPolicy.DEFAULT_STORE_EXTENSIONS;
+        }
+
         public List<AWSEBSetupDescriptor> getExtensionDescriptors() {
             final List<AWSEBSetupDescriptor> extensions = new ArrayList<AWSEBSetupDescriptor>(1);
             extensions.add(AWSEBS3Setup.DESCRIPTOR);
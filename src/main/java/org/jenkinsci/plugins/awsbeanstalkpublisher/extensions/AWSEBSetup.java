@@ -1,12 +1,27 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 import hudson.Launcher;
+import hudson.console.LineTransformationOutputStream;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
+import hudson.model.StreamBuildListener;
+
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBUtils;
 
 public abstract class AWSEBSetup extends AbstractDescribableImpl<AWSEBSetup> {
 
@@ -14,18 +29,129 @@ public abstract class AWSEBSetup extends AbstractDescribableImpl<AWSEBSetup> {
         return true;
     }
 
-    public static boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, List<AWSEBSetup> extensions){
+    /**
+     * Setups with a lower order are performed first, those with the same order may be
+     * performed at the same time.
+     */
+    public int getDeployOrder() {
+        return 0;
+    }
+
+    /**
+     * Performs the setups in stages by deploy order. The setups of a stage run
+     * concurrently when allowed to, and a stage only starts once the previous one
+     * succeeded.
+     *
+     * @param concurrency how many setups of a build may be performed at the same time, 1 to perform them one after the other
+     */
+    public static boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, List<AWSEBSetup> extensions, int concurrency){
+        Map<Integer, List<AWSEBSetup>> stages = new TreeMap<Integer, List<AWSEBSetup>>();
+        for (AWSEBSetup eb : extensions) {
+            if (eb != null) {
+                List<AWSEBSetup> stage = stages.get(eb.getDeployOrder());
+                if (stage == null) {
+                    stage = new ArrayList<AWSEBSetup>();
+                    stages.put(eb.getDeployOrder(), stage);
+                }
+                stage.add(eb);
+            }
+        }
         boolean status = true;
         try {
-            for (AWSEBSetup eb : extensions) {
-                if (eb != null) {
-                    status &= eb.perform(build, launcher, listener);
+            for (Map.Entry<Integer, List<AWSEBSetup>> stage : stages.entrySet()) {
+                if (!status) {
+                    AWSEBUtils.log(listener, "Skipping the setups of deploy order %d, an earlier one failed", stage.getKey());
+                    continue;
                 }
+                status &= performStage(build, launcher, listener, stage.getValue(), concurrency);
             }
             return status;
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(exc);
         } catch (Exception exc) {
             throw new RuntimeException(exc);
         }
     }
-    
+
+    private static boolean performStage(final AbstractBuild<?, ?> build, final Launcher launcher, BuildListener listener, List<AWSEBSetup> stage, int concurrency) throws Exception {
+        int threads = Math.min(concurrency, stage.size());
+        boolean status = true;
+        if (threads <= 1) {
+            for (AWSEBSetup eb : stage) {
+                status &= eb.perform(build, launcher, listener);
+            }
+            return status;
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(stage.size());
+        for (final AWSEBSetup eb : stage) {
+            // The setups share the build log, their lines tell which one logged them.
+            final PrefixedOutputStream out = new PrefixedOutputStream(listener.getLogger(), describe(eb));
+            final BuildListener setupListener = new StreamBuildListener(out, build.getCharset());
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        return eb.perform(build, launcher, setupListener);
+                    } finally {
+                        setupListener.getLogger().flush();
+                        out.close();
+                    }
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = pool.invokeAll(tasks);
+            Exception failure = null;
+            for (int i = 0; i < results.size(); i++) {
+                String name = describe(stage.get(i));
+                try {
+                    boolean success = results.get(i).get();
+                    AWSEBUtils.log(listener, "%s: %s", name, success ? "succeeded" : "failed");
+                    status &= success;
+                } catch (ExecutionException e) {
+                    AWSEBUtils.log(listener, "%s: failed with %s", name, e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return status;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String describe(AWSEBSetup eb) {
+        if (eb instanceof AWSEBElasticBeanstalkSetup) {
+            return "Application " + ((AWSEBElasticBeanstalkSetup) eb).getApplicationName();
+        }
+        return eb.getDescriptor().getDisplayName();
+    }
+
+    private static class PrefixedOutputStream extends LineTransformationOutputStream {
+        private final PrintStream out;
+        private final byte[] prefix;
+
+        PrefixedOutputStream(PrintStream out, String name) {
+            this.out = out;
+            this.prefix = String.format("[%s] ", name).getBytes(Charset.defaultCharset());
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            // Whole lines, so those of the other setups don't end up in the middle.
+            synchronized (out) {
+                out.write(prefix);
+                out.write(b, 0, len);
+                out.flush();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.ApplicationVersionDescription;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationVersionsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationVersionsResult;
+import com.amazonaws.services.elasticbeanstalk.model.S3Location;
+
+public class AWSEBApplicationVersionsTest {
+
+	private static ApplicationVersionDescription version(String label, String key) {
+		return new ApplicationVersionDescription().withVersionLabel(label).withSourceBundle(new S3Location("bucket", key));
+	}
+
+	@Test
+	public void allPagesAreListedOnce() {
+		AWSElasticBeanstalk awseb = mock(AWSElasticBeanstalk.class);
+		when(awseb.describeApplicationVersions(any(DescribeApplicationVersionsRequest.class))).thenReturn(
+				new DescribeApplicationVersionsResult().withApplicationVersions(version("v1", "app-v1.zip")).withNextToken("next"),
+				new DescribeApplicationVersionsResult().withApplicationVersions(version("v2", "app-v2.zip")));
+
+		AWSEBApplicationVersions versions = AWSEBApplicationVersions.get("test", "listed");
+		assertEquals(new S3Location("bucket", "app-v1.zip"), versions.find(awseb, "v1"));
+		assertEquals(new S3Location("bucket", "app-v2.zip"), versions.find(awseb, "v2"));
+		assertNull(versions.find(awseb, "v3"));
+		verify(awseb, times(2)).describeApplicationVersions(any(DescribeApplicationVersionsRequest.class));
+	}
+
+	@Test
+	public void createdVersionsAreCached() {
+		AWSElasticBeanstalk awseb = mock(AWSElasticBeanstalk.class);
+		when(awseb.describeApplicationVersions(any(DescribeApplicationVersionsRequest.class))).thenReturn(
+				new DescribeApplicationVersionsResult());
+
+		AWSEBApplicationVersions versions = AWSEBApplicationVersions.get("test", "created");
+		assertNull(versions.find(awseb, "v1"));
+		versions.put("v1", new S3Location("bucket", "app-v1.zip"));
+		assertEquals(new S3Location("bucket", "app-v1.zip"), AWSEBApplicationVersions.get("test", "created").find(awseb, "v1"));
+		verify(awseb, times(1)).describeApplicationVersions(any(DescribeApplicationVersionsRequest.class));
+	}
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.BucketVersioningConfiguration;
+
+public class AWSEBBucketInfoTest {
+
+	private static AmazonServiceException denied() {
+		AmazonServiceException e = new AmazonServiceException("Access Denied");
+		e.setStatusCode(403);
+		return e;
+	}
+
+	@Test
+	public void factsAreCachedPerAccount() {
+		AmazonS3 s3 = mock(AmazonS3.class);
+		when(s3.getBucketVersioningConfiguration("cached")).thenReturn(
+				new BucketVersioningConfiguration(BucketVersioningConfiguration.ENABLED));
+
+		assertEquals("Enabled", AWSEBBucketInfo.get("first", "cached").getVersioning(s3));
+		assertEquals("Enabled", AWSEBBucketInfo.get("first", "cached").getVersioning(s3));
+		verify(s3, times(1)).getBucketVersioningConfiguration("cached");
+
+		AWSEBBucketInfo.get("second", "cached").getVersioning(s3);
+		verify(s3, times(2)).getBucketVersioningConfiguration("cached");
+	}
+
+	@Test
+	public void failuresAreNotCached() {
+		AmazonS3 s3 = mock(AmazonS3.class);
+		when(s3.getBucketVersioningConfiguration("denied")).thenThrow(denied()).thenReturn(
+				new BucketVersioningConfiguration(BucketVersioningConfiguration.OFF));
+
+		assertNull(AWSEBBucketInfo.get("first", "denied").getVersioning(s3));
+		assertEquals("Off", AWSEBBucketInfo.get("first", "denied").getVersioning(s3));
+	}
+}
@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AWSEBBundleBuilderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+	private File hook;
+	private AWSEBBundleBuilder builder;
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.newFolder("app");
+		FileUtils.writeStringToFile(new File(root, "index.html"), "<html></html>");
+		hook = new File(root, ".ebextensions/hook.sh");
+		FileUtils.writeStringToFile(hook, "#!/bin/sh\necho hook\n");
+		hook.setExecutable(false);
+		builder = new AWSEBBundleBuilder("**/*", "", true, 1, new AWSEBCompressionPolicy(6, "", false));
+	}
+
+	@Test
+	public void fingerprintIsStable() throws IOException {
+		assertEquals(builder.fingerprint(root, true), builder.fingerprint(root, true));
+		assertEquals(builder.fingerprint(root, false), builder.fingerprint(root, false));
+	}
+
+	@Test
+	public void fingerprintChangesWithContent() throws IOException {
+		String before = builder.fingerprint(root, true);
+		FileUtils.writeStringToFile(new File(root, "index.html"), "<html>!</html>");
+		assertFalse(before.equals(builder.fingerprint(root, true)));
+	}
+
+	@Test
+	public void fingerprintChangesWithFileMode() throws IOException {
+		String before = builder.fingerprint(root, true);
+		assumeTrue(hook.setExecutable(true) && hook.canExecute());
+		assertFalse(before.equals(builder.fingerprint(root, true)));
+	}
+
+	@Test
+	public void fingerprintChangesWithSettings() throws IOException {
+		AWSEBBundleBuilder other = new AWSEBBundleBuilder("**/*", "", true, 1, new AWSEBCompressionPolicy(9, "", false));
+		assertFalse(builder.fingerprint(root, true).equals(other.fingerprint(root, true)));
+	}
+}
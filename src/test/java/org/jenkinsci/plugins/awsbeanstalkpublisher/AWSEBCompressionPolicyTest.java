@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AWSEBCompressionPolicyTest {
+
+	@Test
+	public void storesListedExtensions() {
+		AWSEBCompressionPolicy policy = new AWSEBCompressionPolicy(6, ".jar, PNG woff", false);
+		assertTrue(policy.isStored("WEB-INF/lib/app.jar"));
+		assertTrue(policy.isStored("static/logo.png"));
+		assertTrue(policy.isStored("fonts/a.WOFF"));
+		assertFalse(policy.isStored("index.html"));
+		assertFalse(policy.isStored("jar/README"));
+	}
+
+	@Test
+	public void levelZeroStoresEverything() {
+		assertTrue(new AWSEBCompressionPolicy(0, "", false).isStored("index.html"));
+	}
+
+	@Test
+	public void randomSampleIsIncompressible() {
+		AWSEBCompressionPolicy policy = new AWSEBCompressionPolicy(6, "", true);
+		byte[] random = new byte[AWSEBCompressionPolicy.SAMPLE_SIZE];
+		new Random(42).nextBytes(random);
+		assertTrue(policy.isIncompressible(random));
+
+		byte[] text = new byte[AWSEBCompressionPolicy.SAMPLE_SIZE];
+		Arrays.fill(text, (byte) 'a');
+		assertFalse(policy.isIncompressible(text));
+	}
+
+	@Test
+	public void contentInMemoryIsSampled() {
+		byte[] random = new byte[2 * AWSEBCompressionPolicy.SAMPLE_SIZE];
+		new Random(42).nextBytes(random);
+		assertTrue(new AWSEBCompressionPolicy(6, "", true).isIncompressibleContent(random));
+		assertFalse(new AWSEBCompressionPolicy(6, "", false).isIncompressibleContent(random));
+		// Small entries are deflated in full instead.
+		assertFalse(new AWSEBCompressionPolicy(6, "", true).isIncompressibleContent(Arrays.copyOf(random, 1000)));
+	}
+}
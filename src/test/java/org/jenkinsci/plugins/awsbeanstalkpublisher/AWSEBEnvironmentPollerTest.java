@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsResult;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsResult;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+
+public class AWSEBEnvironmentPollerTest {
+
+	private AWSElasticBeanstalk awseb;
+	private AWSEBEnvironmentPoller poller;
+	private AWSEBEnvironmentPoller.Registration first;
+	private AWSEBEnvironmentPoller.Registration second;
+
+	private static EnvironmentDescription env(String id, String status) {
+		return new EnvironmentDescription().withEnvironmentId(id).withEnvironmentName(id + "-name").withApplicationName("app").withStatus(status);
+	}
+
+	private static EventDescription event(String environmentName, long date, String message) {
+		return new EventDescription().withEnvironmentName(environmentName).withEventDate(new Date(date)).withMessage(message);
+	}
+
+	private static ArgumentMatcher<DescribeEventsRequest> latestOnly(final boolean latest) {
+		return new ArgumentMatcher<DescribeEventsRequest>() {
+			@Override
+			public boolean matches(Object argument) {
+				return argument != null && latest == (((DescribeEventsRequest) argument).getMaxRecords() != null);
+			}
+		};
+	}
+
+	@Before
+	public void setUp() {
+		awseb = mock(AWSElasticBeanstalk.class);
+		when(awseb.describeEvents(argThat(latestOnly(true)))).thenReturn(
+				new DescribeEventsResult().withEvents(event("e-1-name", 1000, "last")));
+		poller = new AWSEBEnvironmentPoller("account");
+		first = poller.register(awseb, env("e-1", "Ready"));
+		second = poller.register(awseb, env("e-2", "Ready"));
+	}
+
+	@Test
+	public void environmentsAreDescribedTogether() {
+		when(awseb.describeEnvironments(any(DescribeEnvironmentsRequest.class))).thenReturn(
+				new DescribeEnvironmentsResult().withEnvironments(env("e-1", "Updating"), env("e-2", "Ready")));
+
+		assertEquals("Updating", poller.describe(awseb, "e-1").getStatus());
+		assertEquals("Ready", poller.describe(awseb, "e-2").getStatus());
+		verify(awseb, times(1)).describeEnvironments(any(DescribeEnvironmentsRequest.class));
+	}
+
+	@Test
+	public void eventsAreHandedToTheirEnvironmentOnce() {
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(new DescribeEventsResult().withEvents(
+				event("e-2-name", 3000, "second"), event("e-1-name", 2000, "first"), event("e-1-name", 1000, "last")));
+
+		List<EventDescription> events = poller.getEvents(first);
+		assertEquals(1, events.size());
+		assertEquals("first", events.get(0).getMessage());
+		assertEquals("second", poller.getEvents(second).get(0).getMessage());
+		assertEquals(0, poller.getEvents(first).size());
+		verify(awseb, times(1)).describeEvents(argThat(latestOnly(false)));
+	}
+
+	@Test
+	public void eventsAreHandedToEachTrackerOfAnEnvironment() {
+		AWSEBEnvironmentPoller.Registration other = poller.register(awseb, env("e-1", "Ready"));
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(new DescribeEventsResult().withEvents(
+				event("e-1-name", 2000, "first"), event("e-1-name", 1000, "last")));
+
+		assertEquals("first", poller.getEvents(first).get(0).getMessage());
+		assertEquals("first", poller.getEvents(other).get(0).getMessage());
+
+		poller.unregister(other);
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(new DescribeEventsResult().withEvents(
+				event("e-1-name", 3000, "second"), event("e-1-name", 2000, "first")));
+		poller.invalidateEvents();
+		assertEquals("second", poller.getEvents(first).get(0).getMessage());
+		assertEquals(0, poller.getEvents(other).size());
+	}
+
+	@Test
+	public void eventsOfTheSameDateAreNotLost() {
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(new DescribeEventsResult().withEvents(
+				event("e-1-name", 2000, "first")));
+		assertEquals(1, poller.getEvents(first).size());
+
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(new DescribeEventsResult().withEvents(
+				event("e-1-name", 2000, "also first"), event("e-1-name", 2000, "first"), event("e-1-name", 1000, "last")));
+		poller.invalidateEvents();
+		List<EventDescription> events = poller.getEvents(first);
+		assertEquals(1, events.size());
+		assertEquals("also first", events.get(0).getMessage());
+	}
+
+	@Test
+	public void pollerIsDroppedOnceNothingIsTracked() {
+		AWSEBEnvironmentPoller shared = AWSEBEnvironmentPoller.get("dropped");
+		AWSEBEnvironmentPoller.Registration registration = shared.register(awseb, env("e-1", "Ready"));
+		assertSame(shared, AWSEBEnvironmentPoller.get("dropped"));
+
+		shared.unregister(registration);
+		assertNotSame(shared, AWSEBEnvironmentPoller.get("dropped"));
+	}
+
+	@Test
+	public void eventsAreFetchedAgainOnlySinceTheLatestOnes() {
+		final List<Date> starts = new ArrayList<Date>();
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenAnswer(new Answer<DescribeEventsResult>() {
+			@Override
+			public DescribeEventsResult answer(InvocationOnMock invocation) {
+				starts.add(((DescribeEventsRequest) invocation.getArguments()[0]).getStartTime());
+				return new DescribeEventsResult().withEvents(event("e-2-name", 600000, "busy"));
+			}
+		});
+
+		poller.getEvents(first);
+		poller.invalidateEvents();
+		poller.getEvents(first);
+
+		// The quiet environment doesn't hold the start back to its cursor.
+		assertEquals(Arrays.asList(new Date(1000), new Date(600000 - AWSEBEnvironmentPoller.OVERLAP_MILLISECONDS)), starts);
+	}
+
+	@Test(timeout = 5000)
+	public void slowCallDoesntHoldTheOthers() throws Exception {
+		final CountDownLatch calling = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenAnswer(new Answer<DescribeEventsResult>() {
+			@Override
+			public DescribeEventsResult answer(InvocationOnMock invocation) throws InterruptedException {
+				calling.countDown();
+				release.await();
+				return new DescribeEventsResult();
+			}
+		});
+		when(awseb.describeEnvironments(any(DescribeEnvironmentsRequest.class))).thenReturn(
+				new DescribeEnvironmentsResult().withEnvironments(env("e-1", "Updating"), env("e-2", "Ready")));
+		Thread slow = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				poller.getEvents(first);
+			}
+		});
+		slow.start();
+		calling.await();
+
+		assertEquals("Updating", poller.describe(awseb, "e-1").getStatus());
+		poller.unregister(poller.register(awseb, env("e-3", "Ready")));
+
+		release.countDown();
+		slow.join();
+	}
+}
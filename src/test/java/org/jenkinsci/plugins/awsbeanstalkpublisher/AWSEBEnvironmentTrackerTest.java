@@ -0,0 +1,147 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import hudson.model.BuildListener;
+
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsResult;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsResult;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+
+public class AWSEBEnvironmentTrackerTest {
+
+	private static final EventDescription BEFORE = event(1000, "INFO", "Environment update completed successfully.");
+	private static final EventDescription BUSY_FAILED = event(2000, "ERROR", "Failed to deploy configuration.");
+
+	private AWSElasticBeanstalk awseb;
+	private BuildListener listener;
+
+	private static EnvironmentDescription env(String status, String versionLabel, String health) {
+		return new EnvironmentDescription().withEnvironmentId("e-1").withEnvironmentName("e-1-name").withApplicationName("app")
+				.withStatus(status).withVersionLabel(versionLabel).withHealth(health);
+	}
+
+	private static EventDescription event(long date, String severity, String message) {
+		return new EventDescription().withEnvironmentName("e-1-name").withEventDate(new Date(date)).withSeverity(severity).withMessage(message);
+	}
+
+	private static ArgumentMatcher<DescribeEventsRequest> latestOnly(final boolean latest) {
+		return new ArgumentMatcher<DescribeEventsRequest>() {
+			@Override
+			public boolean matches(Object argument) {
+				return argument != null && latest == (((DescribeEventsRequest) argument).getMaxRecords() != null);
+			}
+		};
+	}
+
+	@Before
+	public void setUp() {
+		awseb = mock(AWSElasticBeanstalk.class);
+		listener = mock(BuildListener.class);
+		when(listener.getLogger()).thenReturn(new PrintStream(new NullOutputStream()));
+		// The environment was busy with an operation that failed after the tracker registered.
+		when(awseb.describeEvents(argThat(latestOnly(true)))).thenReturn(
+				new DescribeEventsResult().withEvents(BEFORE),
+				new DescribeEventsResult().withEvents(BUSY_FAILED, BEFORE));
+	}
+
+	private AWSEBEnvironmentTracker track(EnvironmentDescription updated, long deadline) throws InterruptedException {
+		when(awseb.describeEnvironments(any(DescribeEnvironmentsRequest.class))).thenReturn(
+				new DescribeEnvironmentsResult().withEnvironments(updated));
+		AWSEBEnvironmentTracker tracker = new AWSEBEnvironmentTracker(awseb, new AWSEBEnvironmentPoller("account"),
+				env("Ready", "v1", "Green"), listener, "v2");
+		tracker.start(deadline);
+		tracker.await();
+		return tracker;
+	}
+
+	@Test
+	public void eventsFromBeforeTheUpdateDontFailIt() throws Exception {
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(
+				new DescribeEventsResult().withEvents(BUSY_FAILED, BEFORE));
+
+		assertTrue(track(env("Ready", "v2", "Green"), 0).isSuccessfull());
+	}
+
+	@Test
+	public void eventsOfTheUpdateFailIt() throws Exception {
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(
+				new DescribeEventsResult().withEvents(event(3000, "ERROR", "Failed to deploy application."), BUSY_FAILED, BEFORE));
+
+		assertFalse(track(env("Ready", "v2", "Green"), 0).isSuccessfull());
+	}
+
+	@Test
+	public void unhealthyEnvironmentWithTheVersionIsUpdated() throws Exception {
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(
+				new DescribeEventsResult().withEvents(BUSY_FAILED, BEFORE));
+
+		assertTrue(track(env("Ready", "v2", "Red"), 0).isSuccessfull());
+	}
+
+	@Test
+	public void updateStillGoingOnAtTheDeadlineTimesOut() throws Exception {
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(
+				new DescribeEventsResult().withEvents(BUSY_FAILED, BEFORE));
+
+		AWSEBEnvironmentTracker tracker = track(env("Updating", "v1", "Grey"), System.currentTimeMillis() + 300);
+		assertTrue(tracker.isTimedOut());
+		assertFalse(tracker.isSuccessfull());
+	}
+
+	@Test
+	public void cancelDoesntInterruptTheCallInProgress() throws Exception {
+		when(awseb.describeEvents(argThat(latestOnly(false)))).thenReturn(
+				new DescribeEventsResult().withEvents(BUSY_FAILED, BEFORE));
+		final CountDownLatch calling = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch returned = new CountDownLatch(1);
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		when(awseb.describeEnvironments(any(DescribeEnvironmentsRequest.class))).thenAnswer(new Answer<DescribeEnvironmentsResult>() {
+			@Override
+			public DescribeEnvironmentsResult answer(InvocationOnMock invocation) throws Throwable {
+				calling.countDown();
+				try {
+					release.await(2, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					interrupted.set(true);
+				} finally {
+					returned.countDown();
+				}
+				return new DescribeEnvironmentsResult().withEnvironments(env("Updating", "v1", "Grey"));
+			}
+		});
+		AWSEBEnvironmentTracker tracker = new AWSEBEnvironmentTracker(awseb, new AWSEBEnvironmentPoller("account"),
+				env("Ready", "v1", "Green"), listener, "v2");
+		tracker.start(0);
+		assertTrue(calling.await(2, TimeUnit.SECONDS));
+
+		tracker.cancel();
+		tracker.await();
+		release.countDown();
+		assertTrue(returned.await(2, TimeUnit.SECONDS));
+		assertFalse(interrupted.get());
+		assertFalse(tracker.isSuccessfull());
+	}
+}
@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBEnvironmentUpdater.getDeadline;
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBEnvironmentUpdater.getHealthGate;
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBEnvironmentUpdater.getWaveSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AWSEBEnvironmentUpdaterTest {
+
+	@Test
+	public void blankWaveSizeUpdatesAllAtOnce() {
+		assertEquals(40, getWaveSize("", 40));
+		assertEquals(40, getWaveSize(null, 40));
+	}
+
+	@Test
+	public void waveSizeIsACount() {
+		assertEquals(5, getWaveSize("5", 40));
+		assertEquals(3, getWaveSize("5", 3));
+	}
+
+	@Test
+	public void waveSizeIsAPercentage() {
+		assertEquals(10, getWaveSize("25%", 40));
+		assertEquals(1, getWaveSize("10%", 3));
+	}
+
+	@Test
+	public void invalidWaveSizesAreRejected() {
+		for (String spec : new String[] { "half", "10 %%", "0", "-2", "0%", "150%" }) {
+			try {
+				getWaveSize(spec, 40);
+				fail("Expected wave size " + spec + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().contains(spec));
+			}
+		}
+	}
+
+	@Test
+	public void healthGateIsNoLongerThanTheEnvironmentTimeout() {
+		assertEquals(TimeUnit.MINUTES.toMillis(5), getHealthGate(TimeUnit.MINUTES.toMillis(5)));
+		assertEquals(TimeUnit.MINUTES.toMillis(10), getHealthGate(TimeUnit.MINUTES.toMillis(60)));
+		assertEquals(TimeUnit.MINUTES.toMillis(10), getHealthGate(0));
+	}
+
+	@Test
+	public void environmentDeadlineIsCappedByTheDeployment() {
+		assertEquals(1600, getDeadline(1000, 600, 0));
+		assertEquals(1600, getDeadline(1000, 600, 2000));
+		assertEquals(1200, getDeadline(1000, 600, 1200));
+	}
+
+	@Test
+	public void noTimeoutWaitsForTheDeployment() {
+		assertEquals(1200, getDeadline(1000, 0, 1200));
+		assertEquals(0, getDeadline(1000, 0, 0));
+	}
+}
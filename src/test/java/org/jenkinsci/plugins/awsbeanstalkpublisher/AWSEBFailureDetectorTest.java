@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+
+public class AWSEBFailureDetectorTest {
+
+	private static EventDescription event(String severity, String message) {
+		return new EventDescription().withSeverity(severity).withMessage(message);
+	}
+
+	private static EnvironmentDescription env(String status, String health, String healthStatus) {
+		return new EnvironmentDescription().withStatus(status).withHealth(health).withHealthStatus(healthStatus);
+	}
+
+	@Test
+	public void failedDeploymentEventsAreFailures() {
+		assertNotNull(AWSEBFailureDetector.getFailure(event("ERROR", "Failed to deploy application."), "v2"));
+		assertNotNull(AWSEBFailureDetector.getFailure(event("FATAL", "Something went wrong."), "v2"));
+		assertNotNull(AWSEBFailureDetector.getFailure(event("WARN", "Incorrect application version found on all instances. Expected version \"v2\"."), "v2"));
+		assertNull(AWSEBFailureDetector.getFailure(event("INFO", "Environment update is starting."), "v2"));
+		assertNull(AWSEBFailureDetector.getFailure(event("WARN", "Environment health has transitioned from Ok to Warning."), "v2"));
+	}
+
+	@Test
+	public void onlyRollbacksOfTheDeployedVersionAreFailures() {
+		assertNotNull(AWSEBFailureDetector.getFailure(event("INFO", "Rolling back application version v2."), "v2"));
+		assertNull(AWSEBFailureDetector.getFailure(event("INFO", "Rolling back to the previous version."), "v2"));
+		assertNull(AWSEBFailureDetector.getFailure(event("INFO", "Rolling back configuration changes."), "v2"));
+		assertNull(AWSEBFailureDetector.getFailure(event("INFO", "Deploying v2, rollback is enabled."), "v2"));
+	}
+
+	@Test
+	public void healthIncludesTheEnhancedStatus() {
+		assertEquals("Red", AWSEBFailureDetector.getHealth(env("Ready", "Red", null)));
+		assertEquals("Yellow, Severe", AWSEBFailureDetector.getHealth(env("Ready", "Yellow", "Severe")));
+	}
+}
@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AWSEBFragmentCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = folder.newFolder("cache");
+	}
+
+	private static AWSEBFragmentCache.Fragment fragment(int length) {
+		return new AWSEBFragmentCache.Fragment(AWSEBZipWriter.DEFLATED, 42, 2 * length, new byte[length]);
+	}
+
+	private File fileOf(String key) {
+		return new File(directory, key + ".fragment");
+	}
+
+	@Test
+	public void fragmentsAreFoundByKey() throws IOException {
+		AWSEBFragmentCache cache = new AWSEBFragmentCache(directory, 1024 * 1024, "level=6");
+		String key = cache.key("index.html", "<html></html>".getBytes());
+		assertNull(cache.get(key));
+
+		cache.put(key, new AWSEBFragmentCache.Fragment(AWSEBZipWriter.DEFLATED, 42, 13, new byte[] { 1, 2, 3 }));
+		AWSEBFragmentCache.Fragment found = cache.get(key);
+		assertNotNull(found);
+		assertEquals(42, found.getCrc());
+		assertEquals(13, found.getSize());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, found.getData());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void keysDependOnPathContentAndSettings() throws IOException {
+		AWSEBFragmentCache cache = new AWSEBFragmentCache(directory, 1024, "level=6");
+		String key = cache.key("a.txt", "a".getBytes());
+		assertEquals(key, cache.key("a.txt", "a".getBytes()));
+		assertTrue(!key.equals(cache.key("b.txt", "a".getBytes())));
+		assertTrue(!key.equals(cache.key("a.txt", "b".getBytes())));
+		assertTrue(!key.equals(new AWSEBFragmentCache(directory, 1024, "level=9").key("a.txt", "a".getBytes())));
+	}
+
+	@Test
+	public void leastRecentlyUsedFragmentsAreEvicted() throws IOException {
+		AWSEBFragmentCache cache = new AWSEBFragmentCache(directory, 2500, "level=6");
+		long now = System.currentTimeMillis();
+		String[] keys = { "old", "used", "new" };
+		for (int i = 0; i < keys.length; i++) {
+			cache.put(keys[i], fragment(1000));
+			fileOf(keys[i]).setLastModified(now - (keys.length - i) * 60000);
+		}
+		// Using the oldest but one makes it the most recently used.
+		assertNotNull(cache.get("used"));
+
+		cache.evict();
+
+		assertTrue(!fileOf("old").exists());
+		assertTrue(fileOf("used").exists());
+		assertTrue(fileOf("new").exists());
+		long size = 0;
+		for (File file : directory.listFiles()) {
+			size += file.length();
+		}
+		assertTrue(size <= 2500);
+	}
+
+	@Test
+	public void onlyDeflatedEntriesAreCached() throws Exception {
+		File root = folder.newFolder("app");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("line ").append(i).append('\n');
+		}
+		FileUtils.writeStringToFile(new File(root, "index.html"), text.toString());
+		byte[] random = new byte[10000];
+		new Random(0).nextBytes(random);
+		FileUtils.writeByteArrayToFile(new File(root, "random.bin"), random);
+		FileUtils.writeByteArrayToFile(new File(root, "lib/app.jar"), random);
+
+		TaskListener listener = mock(TaskListener.class);
+		when(listener.getLogger()).thenReturn(new PrintStream(new NullOutputStream()));
+		AWSEBBundleBuilder builder = new AWSEBBundleBuilder("**/*", "", true, 1, new AWSEBCompressionPolicy(6, "jar", false));
+		builder.setFragmentCache(directory.getPath(), 1024 * 1024, listener);
+
+		builder.build(root, new NullOutputStream());
+		assertEquals(1, directory.listFiles().length);
+
+		builder.build(root, new NullOutputStream());
+		assertEquals(1, directory.listFiles().length);
+	}
+}
@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBMultipartUploader.MAX_PARTS;
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBMultipartUploader.MB;
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBMultipartUploader.MIN_PART_SIZE;
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBMultipartUploader.choosePartSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import hudson.model.TaskListener;
+
+import java.io.PrintStream;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+
+public class AWSEBMultipartUploaderTest {
+
+	@Test
+	public void smallBundlesUseMinimumPartSize() {
+		assertEquals(MIN_PART_SIZE, choosePartSize(3 * MB, 0, 4));
+	}
+
+	@Test
+	public void autoTunedPartSizeKeepsEveryWorkerBusy() {
+		assertEquals(38 * MB, choosePartSize(600 * MB, 0, 4));
+	}
+
+	@Test
+	public void configuredPartSizeIsKept() {
+		assertEquals(16 * MB, choosePartSize(600 * MB, 16 * MB, 4));
+	}
+
+	@Test
+	public void partSizeGrowsToStayUnderPartLimit() {
+		long length = 100000 * MB;
+		long partSize = choosePartSize(length, MIN_PART_SIZE, 4);
+		assertTrue((length + partSize - 1) / partSize <= MAX_PARTS);
+	}
+
+	@Test
+	public void onlyTheGivenUploadIsAborted() {
+		AmazonS3 s3 = mock(AmazonS3.class);
+		ArgumentCaptor<AbortMultipartUploadRequest> request = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+
+		assertTrue(AWSEBMultipartUploader.abort(s3, "bucket", "app/app-v1.zip", "upload-1", listener()));
+		verify(s3).abortMultipartUpload(request.capture());
+		assertEquals("app/app-v1.zip", request.getValue().getKey());
+		assertEquals("upload-1", request.getValue().getUploadId());
+		verify(s3, never()).listMultipartUploads(any(ListMultipartUploadsRequest.class));
+	}
+
+	@Test
+	public void uploadAlreadyGoneCountsAsAborted() {
+		AmazonS3 s3 = mock(AmazonS3.class);
+		AmazonServiceException gone = new AmazonServiceException("The specified upload does not exist.");
+		gone.setErrorCode("NoSuchUpload");
+		doThrow(gone).when(s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+		assertTrue(AWSEBMultipartUploader.abort(s3, "bucket", "app/app-v1.zip", "upload-1", listener()));
+
+		AmazonServiceException denied = new AmazonServiceException("Access Denied");
+		denied.setErrorCode("AccessDenied");
+		doThrow(denied).when(s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+		assertFalse(AWSEBMultipartUploader.abort(s3, "bucket", "app/app-v1.zip", "upload-1", listener()));
+	}
+
+	private static TaskListener listener() {
+		TaskListener listener = mock(TaskListener.class);
+		when(listener.getLogger()).thenReturn(new PrintStream(new NullOutputStream()));
+		return listener;
+	}
+}
@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBPollingInterval.MAX_INTERVAL_MILLISECONDS;
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBPollingInterval.MIN_INTERVAL_MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AWSEBPollingIntervalTest {
+
+	@Test
+	public void backsOffWhileStatusIsUnchanged() {
+		AWSEBPollingInterval polling = new AWSEBPollingInterval("e-backoff", 0);
+		assertEquals(MIN_INTERVAL_MILLISECONDS, polling.next("Updating", 0));
+		assertEquals(7500, polling.next("Updating", 5000));
+		long wait = 0;
+		for (int i = 0; i < 10; i++) {
+			wait = polling.next("Updating", 20000);
+		}
+		assertEquals(MAX_INTERVAL_MILLISECONDS, wait);
+	}
+
+	@Test
+	public void statusChangeResetsInterval() {
+		AWSEBPollingInterval polling = new AWSEBPollingInterval("e-reset", 0);
+		polling.next("Launching", 0);
+		polling.next("Launching", 5000);
+		assertEquals(MIN_INTERVAL_MILLISECONDS, polling.next("Updating", 12500));
+	}
+
+	@Test
+	public void previousDurationIsWaitedOutSparsely() {
+		new AWSEBPollingInterval("e-history", 0).finished(100000);
+
+		AWSEBPollingInterval polling = new AWSEBPollingInterval("e-history", 0);
+		assertEquals(MAX_INTERVAL_MILLISECONDS, polling.next("Updating", 0));
+		assertEquals(10000, polling.next("Updating", 90000));
+		assertEquals(MIN_INTERVAL_MILLISECONDS, polling.next("Updating", 100000));
+	}
+}
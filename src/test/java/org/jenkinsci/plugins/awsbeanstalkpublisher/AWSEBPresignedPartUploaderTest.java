@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import hudson.model.TaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AWSEBPresignedPartUploaderTest {
+
+	private ServerSocket silent;
+	private File bundle;
+
+	@Before
+	public void setUp() throws IOException {
+		// Accepts connections, but never answers.
+		silent = new ServerSocket(0);
+		bundle = File.createTempFile("bundle", ".zip");
+		FileUtils.writeByteArrayToFile(bundle, new byte[100]);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		silent.close();
+		bundle.delete();
+	}
+
+	@Test(timeout = 10000)
+	public void stalledPartIsRetriedThenFails() throws Exception {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		TaskListener listener = mock(TaskListener.class);
+		when(listener.getLogger()).thenReturn(new PrintStream(log, true));
+		URL url = new URL("http://localhost:" + silent.getLocalPort() + "/part-1");
+		AWSEBPresignedPartUploader uploader = new AWSEBPresignedPartUploader(new URL[] { url }, 100, 1, 1, listener);
+		uploader.setTimeout(200);
+
+		try {
+			uploader.invoke(bundle, null);
+			fail("Expected the stalled part to fail");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof SocketTimeoutException);
+		}
+		assertTrue(log.toString().contains("Part 1 failed"));
+	}
+}
@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AWSEBRateLimiterTest {
+
+	@Test
+	public void throttlingHalvesRateDownToMinimum() {
+		AWSEBRateLimiter limiter = new AWSEBRateLimiter(AWSEBRateLimiter.Service.ELASTIC_BEANSTALK);
+		limiter.throttled();
+		assertEquals(2.5, limiter.getRate(), 0.001);
+		for (int i = 0; i < 10; i++) {
+			limiter.throttled();
+		}
+		assertEquals(0.5, limiter.getRate(), 0.001);
+	}
+
+	@Test
+	public void successesRaiseRateSlowly() {
+		AWSEBRateLimiter limiter = new AWSEBRateLimiter(AWSEBRateLimiter.Service.ELASTIC_BEANSTALK);
+		limiter.succeeded();
+		assertEquals(5.2, limiter.getRate(), 0.001);
+		for (int i = 0; i < 1000; i++) {
+			limiter.succeeded();
+		}
+		assertEquals(20, limiter.getRate(), 0.001);
+	}
+
+	@Test
+	public void callsBeyondTheBurstArePaced() throws InterruptedException {
+		AWSEBRateLimiter limiter = new AWSEBRateLimiter(AWSEBRateLimiter.Service.ELASTIC_BEANSTALK);
+		long waited = 0;
+		for (int i = 0; i < 8; i++) {
+			waited += limiter.acquire();
+		}
+		assertTrue("waited " + waited, waited > 0);
+	}
+}
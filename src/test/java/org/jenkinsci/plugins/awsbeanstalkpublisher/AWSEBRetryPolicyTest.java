@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBRetryPolicy.ErrorClass;
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+public class AWSEBRetryPolicyTest {
+
+	private static AmazonServiceException serviceException(int statusCode, String errorCode, String message) {
+		AmazonServiceException e = new AmazonServiceException(message);
+		e.setStatusCode(statusCode);
+		e.setErrorCode(errorCode);
+		return e;
+	}
+
+	@Test
+	public void errorsAreClassified() {
+		assertEquals(ErrorClass.THROTTLING, AWSEBRetryPolicy.classify(serviceException(400, "Throttling", "Rate exceeded")));
+		assertEquals(ErrorClass.THROTTLING, AWSEBRetryPolicy.classify(serviceException(429, null, "Too Many Requests")));
+		assertEquals(ErrorClass.BUSY, AWSEBRetryPolicy.classify(serviceException(400, "InvalidParameterValue",
+				"Environment named e-1 is in an invalid state for this operation. Must be Ready.")));
+		assertEquals(ErrorClass.TRANSIENT, AWSEBRetryPolicy.classify(serviceException(503, "ServiceUnavailable", "Unavailable")));
+		assertEquals(ErrorClass.TRANSIENT, AWSEBRetryPolicy.classify(new AmazonClientException("Unable to execute HTTP request")));
+		assertEquals(ErrorClass.PERMANENT, AWSEBRetryPolicy.classify(serviceException(400, "InvalidParameterValue",
+				"No Application Version named 'v1' found.")));
+		assertEquals(ErrorClass.PERMANENT, AWSEBRetryPolicy.classify(new IllegalStateException()));
+	}
+
+	@Test
+	public void permanentErrorsAreNotRetried() {
+		assertEquals(-1, new AWSEBRetryPolicy().onFailure(ErrorClass.PERMANENT, 0));
+	}
+
+	@Test
+	public void backoffGrowsWithJitterUntilAttemptsRunOut() {
+		AWSEBRetryPolicy retry = new AWSEBRetryPolicy(new Random(0));
+		long previousCeiling = 0;
+		for (int attempt = 1; attempt < AWSEBRetryPolicy.MAX_ATTEMPTS; attempt++) {
+			long ceiling = 1000L << (attempt - 1);
+			long delay = retry.onFailure(ErrorClass.TRANSIENT, 0);
+			assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+			assertTrue(ceiling > previousCeiling);
+			previousCeiling = ceiling;
+		}
+		assertEquals(-1, retry.onFailure(ErrorClass.TRANSIENT, 0));
+
+		retry.onSuccess();
+		assertEquals(1, retry.getAttempt());
+	}
+
+	@Test
+	public void retriesStopAtTheDeadline() {
+		AWSEBRetryPolicy retry = new AWSEBRetryPolicy();
+		assertTrue(retry.onFailure(ErrorClass.BUSY, 0) > 0);
+		assertEquals(-1, retry.onFailure(ErrorClass.BUSY, AWSEBRetryPolicy.DEADLINE_MILLISECONDS));
+	}
+}
@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBMultipartUploader.MB;
+import static org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBMultipartUploader.MIN_PART_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import hudson.model.TaskListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+public class AWSEBStreamingUploadTest {
+
+	private AmazonS3 s3;
+	private AWSEBMultipartUploader uploader;
+
+	private static final Answer<UploadPartResult> ETAG_PER_PART = new Answer<UploadPartResult>() {
+		@Override
+		public UploadPartResult answer(InvocationOnMock invocation) {
+			UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+			UploadPartResult result = new UploadPartResult();
+			result.setPartNumber(request.getPartNumber());
+			result.setETag("etag-" + request.getPartNumber());
+			return result;
+		}
+	};
+
+	@Before
+	public void setUp() {
+		s3 = mock(AmazonS3.class);
+		InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+		initiated.setUploadId("upload-1");
+		when(s3.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+		TaskListener listener = mock(TaskListener.class);
+		when(listener.getLogger()).thenReturn(new PrintStream(new NullOutputStream()));
+		uploader = new AWSEBMultipartUploader(s3, "bucket", "key", listener, MIN_PART_SIZE, 2, 0);
+	}
+
+	@Test
+	public void smallStreamIsPutInOneRequest() throws Exception {
+		uploader.upload(new ByteArrayInputStream(new byte[1000]));
+
+		verify(s3).putObject(any(PutObjectRequest.class));
+		verify(s3, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+	}
+
+	@Test
+	public void largeStreamIsUploadedInOrderedParts() throws Exception {
+		when(s3.uploadPart(any(UploadPartRequest.class))).thenAnswer(ETAG_PER_PART);
+
+		uploader.upload(new ByteArrayInputStream(new byte[(int) (2 * MIN_PART_SIZE + MB)]));
+
+		verify(s3, times(3)).uploadPart(any(UploadPartRequest.class));
+		ArgumentCaptor<CompleteMultipartUploadRequest> completed = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+		verify(s3).completeMultipartUpload(completed.capture());
+		List<PartETag> etags = completed.getValue().getPartETags();
+		assertEquals(3, etags.size());
+		for (int i = 0; i < etags.size(); i++) {
+			assertEquals(i + 1, etags.get(i).getPartNumber());
+		}
+		verify(s3, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+	}
+
+	@Test
+	public void failedPartAbortsTheUpload() throws Exception {
+		AmazonServiceException denied = new AmazonServiceException("Access Denied");
+		denied.setStatusCode(403);
+		when(s3.uploadPart(any(UploadPartRequest.class))).thenThrow(denied);
+
+		try {
+			uploader.upload(new ByteArrayInputStream(new byte[(int) (3 * MIN_PART_SIZE)]));
+			fail("The upload should have failed");
+		} catch (AmazonServiceException e) {
+			assertEquals(403, e.getStatusCode());
+		}
+
+		verify(s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+		verify(s3, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+	}
+}
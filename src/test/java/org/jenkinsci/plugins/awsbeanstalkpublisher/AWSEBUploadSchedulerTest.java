@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AWSEBUploadSchedulerTest {
+
+	@Test
+	public void uploadsAreUnlimitedWithoutALimit() throws InterruptedException {
+		AWSEBUploadScheduler scheduler = new AWSEBUploadScheduler();
+		AWSEBUploadScheduler.Lease lease = scheduler.register(AWSEBUploadScheduler.Priority.NORMAL);
+		lease.acquire(100 * 1024 * 1024);
+		assertEquals(0, lease.getShare());
+		assertEquals(0, lease.getThrottledMillis());
+		assertEquals(100 * 1024 * 1024, lease.getBytes());
+	}
+
+	@Test
+	public void bandwidthIsSharedByPriority() {
+		AWSEBUploadScheduler scheduler = new AWSEBUploadScheduler();
+		scheduler.setBandwidthLimit(5000);
+		AWSEBUploadScheduler.Lease high = scheduler.register(AWSEBUploadScheduler.Priority.HIGH);
+		AWSEBUploadScheduler.Lease low = scheduler.register(AWSEBUploadScheduler.Priority.LOW);
+		assertEquals(4000, high.getShare());
+		assertEquals(1000, low.getShare());
+
+		high.close();
+		assertEquals(5000, low.getShare());
+	}
+
+	@Test
+	public void uploadsArePacedToTheirShare() throws InterruptedException {
+		AWSEBUploadScheduler scheduler = new AWSEBUploadScheduler();
+		scheduler.setBandwidthLimit(1024 * 1024);
+		AWSEBUploadScheduler.Lease lease = scheduler.register(AWSEBUploadScheduler.Priority.NORMAL);
+		long start = System.currentTimeMillis();
+		// The burst is free, the rest takes half a second at 1 MB/s.
+		lease.acquire(256 * 1024 + 512 * 1024);
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed >= 400);
+		assertTrue(lease.getThrottledMillis() >= 400);
+	}
+
+	@Test
+	public void waitingDoesNotHoldTheLease() throws InterruptedException {
+		AWSEBUploadScheduler scheduler = new AWSEBUploadScheduler();
+		scheduler.setBandwidthLimit(1024 * 1024);
+		final AWSEBUploadScheduler.Lease lease = scheduler.register(AWSEBUploadScheduler.Priority.NORMAL);
+		final CountDownLatch acquiring = new CountDownLatch(1);
+		Thread slow = new Thread() {
+			@Override
+			public void run() {
+				acquiring.countDown();
+				try {
+					lease.acquire(256 * 1024 + 3 * 1024 * 1024);
+				} catch (InterruptedException e) {
+					// Stopped by the test.
+				}
+			}
+		};
+		slow.start();
+		try {
+			acquiring.await();
+			Thread.sleep(100);
+			long start = System.currentTimeMillis();
+			lease.getBytes();
+			assertTrue(System.currentTimeMillis() - start < 1000);
+		} finally {
+			slow.interrupt();
+			slow.join();
+		}
+	}
+}
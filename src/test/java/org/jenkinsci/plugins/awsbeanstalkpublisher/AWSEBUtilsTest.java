@@ -0,0 +1,39 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+public class AWSEBUtilsTest {
+
+	private static Integer timeoutOf(AmazonWebServiceRequest request) {
+		return AWSEBUtils.S3_REQUEST_TIMEOUT.beforeExecution(request).getSdkRequestTimeout();
+	}
+
+	@Test
+	public void s3LookupsTimeOut() {
+		assertNotNull(timeoutOf(new ListPartsRequest("bucket", "key", "upload-1")));
+		assertNotNull(timeoutOf(new ListMultipartUploadsRequest("bucket")));
+	}
+
+	@Test
+	public void s3TransfersDontTimeOut() {
+		assertNull(timeoutOf(new PutObjectRequest("bucket", "key", new File("bundle.zip"))));
+		assertNull(timeoutOf(new UploadPartRequest()));
+	}
+
+	@Test
+	public void timeoutOfTheRequestIsKept() {
+		assertEquals(Integer.valueOf(5), timeoutOf(new ListPartsRequest("bucket", "key", "upload-1").<ListPartsRequest>withSdkRequestTimeout(5)));
+	}
+}
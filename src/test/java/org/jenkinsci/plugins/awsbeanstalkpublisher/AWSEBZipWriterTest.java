@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AWSEBZipWriterTest {
+
+	// Even seconds, zip times have a two second precision.
+	private static final long TIME = 1420113600000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File zip;
+	private AWSEBZipWriter writer;
+
+	@Before
+	public void setUp() throws IOException {
+		zip = folder.newFile("bundle.zip");
+		writer = new AWSEBZipWriter(new FileOutputStream(zip));
+	}
+
+	private static byte[] text(int lines) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			text.append("line ").append(i).append('\n');
+		}
+		return text.toString().getBytes();
+	}
+
+	private static long crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	private void writeStored(String name, byte[] data, int mode) throws IOException {
+		writer.write(new AWSEBZipWriter.Entry(name, TIME, mode, AWSEBZipWriter.STORED, crc(data), data.length, data.length),
+				new ByteArrayInputStream(data));
+	}
+
+	private static byte[] read(ZipFile file, String name) throws IOException {
+		InputStream in = file.getInputStream(file.getEntry(name));
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void entriesRoundTrip() throws IOException {
+		byte[] stored = new byte[10000];
+		new Random(0).nextBytes(stored);
+		byte[] streamed = text(5000);
+		byte[] predeflated = text(3000);
+		CRC32 crc = new CRC32();
+		byte[] deflated = AWSEBZipWriter.deflate(predeflated, Deflater.DEFAULT_COMPRESSION, crc);
+
+		writeStored("random.bin", stored, 0100644);
+		writer.writeDeflated(new AWSEBZipWriter.Entry("dir/streamed.txt", TIME, 0100644, AWSEBZipWriter.DEFLATED, 0, 0, 0),
+				new ByteArrayInputStream(streamed), Deflater.DEFAULT_COMPRESSION);
+		writer.write(new AWSEBZipWriter.Entry("dir/predeflated.txt", TIME, 0100644, AWSEBZipWriter.DEFLATED,
+				crc.getValue(), deflated.length, predeflated.length), new ByteArrayInputStream(deflated));
+		writer.close();
+
+		ZipFile file = new ZipFile(zip);
+		try {
+			assertEquals(3, file.size());
+			assertArrayEquals(stored, read(file, "random.bin"));
+			assertArrayEquals(streamed, read(file, "dir/streamed.txt"));
+			assertArrayEquals(predeflated, read(file, "dir/predeflated.txt"));
+
+			ZipEntry entry = file.getEntry("random.bin");
+			assertEquals(ZipEntry.STORED, entry.getMethod());
+			assertEquals(TIME, entry.getTime());
+			assertEquals(ZipEntry.DEFLATED, file.getEntry("dir/streamed.txt").getMethod());
+			assertTrue(file.getEntry("dir/streamed.txt").getCompressedSize() < streamed.length);
+		} finally {
+			file.close();
+		}
+	}
+
+	@Test
+	public void emptyFilesRoundTrip() throws IOException {
+		writeStored("empty-stored", new byte[0], 0100644);
+		writer.writeDeflated(new AWSEBZipWriter.Entry("empty-deflated", TIME, 0100644, AWSEBZipWriter.DEFLATED, 0, 0, 0),
+				new ByteArrayInputStream(new byte[0]), Deflater.DEFAULT_COMPRESSION);
+		writer.close();
+
+		ZipFile file = new ZipFile(zip);
+		try {
+			assertEquals(0, read(file, "empty-stored").length);
+			assertEquals(0, read(file, "empty-deflated").length);
+			assertEquals(0, file.getEntry("empty-deflated").getSize());
+		} finally {
+			file.close();
+		}
+	}
+
+	@Test
+	public void fileModesAreKept() throws IOException {
+		writeStored("hook.sh", text(1), 0100755);
+		writeStored("config.yml", text(1), 0100644);
+		writeStored("no-mode", text(1), -1);
+		writer.close();
+
+		org.apache.tools.zip.ZipFile file = new org.apache.tools.zip.ZipFile(zip);
+		try {
+			assertEquals(0100755, file.getEntry("hook.sh").getUnixMode());
+			assertEquals(0100644, file.getEntry("config.yml").getUnixMode());
+			assertEquals(0, file.getEntry("no-mode").getUnixMode());
+		} finally {
+			file.close();
+		}
+	}
+
+	@Test
+	public void tooManyEntriesFail() throws IOException {
+		AWSEBZipWriter nowhere = new AWSEBZipWriter(new NullOutputStream());
+		byte[] empty = new byte[0];
+		for (int i = 0; i < 0xFFFF; i++) {
+			nowhere.write(new AWSEBZipWriter.Entry("f" + i, TIME, -1, AWSEBZipWriter.STORED, 0, 0, 0), new ByteArrayInputStream(empty));
+		}
+		try {
+			nowhere.write(new AWSEBZipWriter.Entry("one-too-many", TIME, -1, AWSEBZipWriter.STORED, 0, 0, 0), new ByteArrayInputStream(empty));
+			fail("Zip64 isn't supported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("65535 entries"));
+		}
+	}
+
+	@Test
+	public void entriesPastFourGigabytesFail() throws IOException {
+		long size = 0x100000000L;
+		try {
+			writer.write(new AWSEBZipWriter.Entry("huge.bin", TIME, -1, AWSEBZipWriter.STORED, 0, size, size), new ByteArrayInputStream(new byte[0]));
+			fail("Zip64 isn't supported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("4 GB"));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AWSEBSetupTest {
+
+	private BuildListener listener;
+	private List<String> performed;
+
+	@Before
+	public void setUp() {
+		listener = mock(BuildListener.class);
+		when(listener.getLogger()).thenReturn(new PrintStream(new NullOutputStream()));
+		performed = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	@Test
+	public void stagesArePerformedByDeployOrder() {
+		assertTrue(perform(1, new RecordingSetup("c", 2), new RecordingSetup("a", 1), new RecordingSetup("b", 1)));
+
+		assertEquals(Arrays.asList("a", "b", "c"), performed);
+	}
+
+	@Test
+	public void setupsOfAStageArePerformedConcurrently() {
+		CountDownLatch together = new CountDownLatch(2);
+
+		assertTrue(perform(2, new RecordingSetup("a", 0).meeting(together), new RecordingSetup("b", 0).meeting(together)));
+	}
+
+	@Test
+	public void setupsOfAStageAreSequentialWithoutConcurrency() {
+		CountDownLatch together = new CountDownLatch(2);
+
+		assertFalse(perform(1, new RecordingSetup("a", 0).meeting(together), new RecordingSetup("b", 0).meeting(together)));
+		assertEquals(Arrays.asList("a", "b"), performed);
+	}
+
+	@Test
+	public void failedStageSkipsTheLaterStages() {
+		assertFalse(perform(2, new RecordingSetup("a", 1).failing(), new RecordingSetup("b", 1), new RecordingSetup("c", 2)));
+		assertFalse(performed.contains("c"));
+		assertTrue(performed.contains("b"));
+	}
+
+	@Test
+	public void exceptionOfAConcurrentSetupFailsTheBuild() {
+		try {
+			perform(2, new RecordingSetup("a", 1).throwing(), new RecordingSetup("b", 1), new RecordingSetup("c", 2));
+			fail("Expected the exception of setup a");
+		} catch (RuntimeException e) {
+			assertEquals("a", e.getCause().getMessage());
+		}
+		assertFalse(performed.contains("c"));
+	}
+
+	@Test
+	public void linesOfConcurrentSetupsArePrefixed() {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		when(listener.getLogger()).thenReturn(new PrintStream(log, true));
+
+		assertTrue(perform(2, new RecordingSetup("a", 0).logging("from a"), new RecordingSetup("b", 0).logging("from b")));
+		String lines = log.toString();
+		assertTrue(lines, lines.contains("[a] from a"));
+		assertTrue(lines, lines.contains("[b] from b"));
+	}
+
+	private boolean perform(int concurrency, AWSEBSetup... setups) {
+		return AWSEBSetup.perform(mock(AbstractBuild.class), mock(Launcher.class), listener, Arrays.asList(setups), concurrency);
+	}
+
+	private class RecordingSetup extends AWSEBSetup {
+
+		private final String name;
+		private final int deployOrder;
+		private CountDownLatch together;
+		private boolean failing;
+		private boolean throwing;
+		private String line;
+
+		RecordingSetup(String name, int deployOrder) {
+			this.name = name;
+			this.deployOrder = deployOrder;
+		}
+
+		RecordingSetup meeting(CountDownLatch together) {
+			this.together = together;
+			return this;
+		}
+
+		RecordingSetup failing() {
+			failing = true;
+			return this;
+		}
+
+		RecordingSetup throwing() {
+			throwing = true;
+			return this;
+		}
+
+		RecordingSetup logging(String line) {
+			this.line = line;
+			return this;
+		}
+
+		@Override
+		public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws Exception {
+			performed.add(name);
+			if (line != null) {
+				listener.getLogger().println(line);
+			}
+			if (throwing) {
+				throw new IllegalStateException(name);
+			}
+			if (together != null) {
+				// Only succeeds if the other setup of the stage is performed at the same time.
+				together.countDown();
+				return together.await(200, TimeUnit.MILLISECONDS);
+			}
+			return !failing;
+		}
+
+		@Override
+		public int getDeployOrder() {
+			return deployOrder;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Descriptor<AWSEBSetup> getDescriptor() {
+			Descriptor<AWSEBSetup> descriptor = mock(Descriptor.class);
+			when(descriptor.getDisplayName()).thenReturn(name);
+			return descriptor;
+		}
+	}
+}